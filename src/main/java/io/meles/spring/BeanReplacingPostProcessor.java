@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+
+/**
+ * Removes the bean definitions matching excluded types, and replaces those matching replaced types with stub
+ * singletons, before any of them are instantiated.
+ * <p>
+ * It is registered with the bean factory as a singleton rather than added to the context, so that it runs after the
+ * (prioritised) <code>ConfigurationClassPostProcessor</code> has registered the beans declared by the config classes.
+ */
+class BeanReplacingPostProcessor implements BeanDefinitionRegistryPostProcessor {
+
+    static final String BEAN_NAME = BeanReplacingPostProcessor.class.getName();
+
+    private final Map<Class<?>, Object> replacements;
+    private final List<Class<?>> exclusions;
+    private final Map<String, Class<?>> replacedBeans = new LinkedHashMap<>();
+
+    BeanReplacingPostProcessor(final Map<Class<?>, Object> replacements, final List<Class<?>> exclusions) {
+        this.replacements = new LinkedHashMap<>(replacements);
+        this.exclusions = exclusions;
+    }
+
+    @Override
+    public void postProcessBeanDefinitionRegistry(final BeanDefinitionRegistry registry) throws BeansException {
+        final ConfigurableListableBeanFactory beanFactory = (ConfigurableListableBeanFactory) registry;
+        for (final Class<?> excluded : exclusions) {
+            for (final String beanName : matchingBeanNames(beanFactory, excluded)) {
+                registry.removeBeanDefinition(beanName);
+            }
+        }
+        // the first replaced type a bean matches, in the order they were added, decides its stub
+        for (final Entry<Class<?>, Object> replacement : replacements.entrySet()) {
+            for (final String beanName : matchingBeanNames(beanFactory, replacement.getKey())) {
+                registry.removeBeanDefinition(beanName);
+                beanFactory.registerSingleton(beanName, replacement.getValue());
+                replacedBeans.put(beanName, replacement.getKey());
+            }
+        }
+    }
+
+    /**
+     * Find the bean definitions matching <code>type</code> without initialising anything, as no bean post processors
+     * are registered yet: a <code>FactoryBean</code> created to find its object type (and the beans it depends on)
+     * would miss them. A <code>FactoryBean</code> whose object type can't be found from its definition isn't matched.
+     */
+    private static List<String> matchingBeanNames(final ConfigurableListableBeanFactory beanFactory,
+                                                  final Class<?> type) {
+        final List<String> beanNames = new ArrayList<>();
+        for (final String beanName : beanFactory.getBeanNamesForType(type, true, false)) {
+            // skip singletons registered by the test, or already replaced, and spring's own infrastructure
+            if (beanFactory.containsBeanDefinition(beanName)
+                    && beanFactory.getBeanDefinition(beanName).getRole() != BeanDefinition.ROLE_INFRASTRUCTURE) {
+                beanNames.add(beanName);
+            }
+        }
+        return beanNames;
+    }
+
+    @Override
+    public void postProcessBeanFactory(final ConfigurableListableBeanFactory beanFactory) throws BeansException {
+    }
+
+    /**
+     * @return the names of the beans that were replaced, and the type each was matched by
+     */
+    Map<String, Class<?>> getReplacedBeans() {
+        return replacedBeans;
+    }
+}
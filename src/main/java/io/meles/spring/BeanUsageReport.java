@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Records which of the beans created in test contexts were used by a test, and when the JVM shuts down writes the
+ * beans that no test used to a report file, grouped by the config class that declares them.
+ * <p>
+ * Tracing is enabled by setting the <code>io.meles.spring.beanUsageReport</code> system property to the path of the
+ * report file. A bean is used if a test got it from the <code>SpringContext</code>, had it autowired, or used a bean
+ * that depends on it (including, for <code>@Bean</code> methods, the config class that declares it). Beans that a
+ * test only reaches through the <code>ApplicationContext</code>, or through a bean that looks it up itself, aren't
+ * seen, so the report should be read as a list of candidates for trimming configs or making beans lazy.
+ */
+final class BeanUsageReport {
+
+    private static final Log LOG = LogFactory.getLog(BeanUsageReport.class);
+
+    private static final String REPORT_FILE_PROPERTY = "io.meles.spring.beanUsageReport";
+    private static final String NO_CONFIG_CLASS = "(no config class)";
+
+    private static final BeanUsageReport SHARED = createShared();
+
+    private final File reportFile;
+    // bean names by the config class that declares them
+    private final Map<String, SortedSet<String>> created = new TreeMap<>();
+    private final Map<String, SortedSet<String>> used = new TreeMap<>();
+
+    BeanUsageReport(final File reportFile) {
+        this.reportFile = reportFile;
+    }
+
+    private static BeanUsageReport createShared() {
+        final String reportFile = System.getProperty(REPORT_FILE_PROPERTY);
+        if (reportFile == null) {
+            return null;
+        }
+        final BeanUsageReport report = new BeanUsageReport(new File(reportFile));
+        Runtime.getRuntime().addShutdownHook(new Thread("spring-rule-bean-usage-report") {
+            @Override
+            public void run() {
+                try {
+                    report.write();
+                } catch (IOException e) {
+                    LOG.error("unable to write bean usage report to " + report.reportFile, e);
+                }
+            }
+        });
+        return report;
+    }
+
+    /**
+     * @return the report for the JVM, or <code>null</code> if tracing isn't enabled
+     */
+    static BeanUsageReport shared() {
+        return SHARED;
+    }
+
+    /**
+     * Record the beans that one test used.
+     *
+     * @param beanFactory the bean factory of the test's context, while it's still active
+     * @param usedBeans   the names of the beans the test used directly
+     */
+    synchronized void record(final ConfigurableListableBeanFactory beanFactory, final Collection<String> usedBeans) {
+        for (final String beanName : beanFactory.getSingletonNames()) {
+            if (isTraced(beanFactory, beanName)) {
+                add(created, configClass(beanFactory, beanName), beanName);
+            }
+        }
+        for (final String beanName : withDependencies(beanFactory, usedBeans)) {
+            if (isTraced(beanFactory, beanName)) {
+                add(used, configClass(beanFactory, beanName), beanName);
+            }
+        }
+    }
+
+    /**
+     * Only beans defined by the context's configuration are traced, not singletons registered by the test or
+     * spring's own infrastructure.
+     */
+    private static boolean isTraced(final ConfigurableListableBeanFactory beanFactory, final String beanName) {
+        return beanFactory.containsBeanDefinition(beanName)
+                && beanFactory.getBeanDefinition(beanName).getRole() != BeanDefinition.ROLE_INFRASTRUCTURE;
+    }
+
+    private static Set<String> withDependencies(final ConfigurableListableBeanFactory beanFactory,
+                                                final Collection<String> beanNames) {
+        final Set<String> found = new HashSet<>();
+        final Deque<String> toVisit = new ArrayDeque<>(beanNames);
+        while (!toVisit.isEmpty()) {
+            final String beanName = toVisit.pop();
+            if (!found.add(beanName)) {
+                continue;
+            }
+            for (final String dependency : beanFactory.getDependenciesForBean(beanName)) {
+                toVisit.push(dependency);
+            }
+            if (beanFactory.containsBeanDefinition(beanName)) {
+                final String factoryBeanName = beanFactory.getBeanDefinition(beanName).getFactoryBeanName();
+                if (factoryBeanName != null) {
+                    toVisit.push(factoryBeanName);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the config class that declares the bean, or the bean's own class if it is a config class
+     */
+    private static String configClass(final ConfigurableListableBeanFactory beanFactory, final String beanName) {
+        final BeanDefinition beanDefinition = beanFactory.getBeanDefinition(beanName);
+        final String factoryBeanName = beanDefinition.getFactoryBeanName();
+        if (factoryBeanName != null) {
+            return className(beanFactory, factoryBeanName);
+        }
+        if (beanDefinition.getAttribute(SingletonSwappingBeanFactory.CONFIGURATION_CLASS_ATTRIBUTE) != null) {
+            return className(beanFactory, beanName);
+        }
+        return NO_CONFIG_CLASS;
+    }
+
+    /**
+     * @return the name of the bean's class, as declared rather than as enhanced by spring
+     */
+    private static String className(final ConfigurableListableBeanFactory beanFactory, final String beanName) {
+        final Class<?> type = beanFactory.getType(beanName);
+        return type == null ? beanName : ClassUtils.getUserClass(type).getName();
+    }
+
+    private static void add(final Map<String, SortedSet<String>> beansByConfig, final String configClass,
+                            final String beanName) {
+        SortedSet<String> configBeans = beansByConfig.get(configClass);
+        if (configBeans == null) {
+            configBeans = new TreeSet<>();
+            beansByConfig.put(configClass, configBeans);
+        }
+        configBeans.add(beanName);
+    }
+
+    /**
+     * Write the beans that were created but never used, by config class.
+     */
+    synchronized void write() throws IOException {
+        try (final Writer writer = ReportFiles.newWriter(reportFile, false)) {
+            for (final Entry<String, SortedSet<String>> config : created.entrySet()) {
+                final Set<String> usedBeans = used.get(config.getKey());
+                final SortedSet<String> unusedBeans = new TreeSet<>(config.getValue());
+                if (usedBeans != null) {
+                    unusedBeans.removeAll(usedBeans);
+                }
+                writer.append(config.getKey()).append(": ")
+                        .append(String.valueOf(unusedBeans.size())).append(" of ")
+                        .append(String.valueOf(config.getValue().size())).append(" beans never used\n");
+                for (final String beanName : unusedBeans) {
+                    writer.append('\t').append(beanName).append('\n');
+                }
+            }
+        }
+    }
+}
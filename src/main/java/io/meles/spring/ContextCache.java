@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Spring contexts that outlive a single test, keyed by their {@link ContextKey} (or, for contexts shared by the
+ * repeated invocations of a test class, see {@link RepeatedInvocations}, their {@link ContextInstanceKey}). A cached
+ * context is leased to one test at a time.
+ * <p>
+ * Each context is started at most once: the first test to ask for a key starts the context on its own thread, and
+ * tests that ask for the same key meanwhile wait for it to finish rather than starting another. Tests asking for
+ * different keys never wait for each other.
+ * <p>
+ * The least recently used context is closed once the cache holds more than its maximum number of contexts (set with
+ * the <code>io.meles.spring.contextCacheSize</code> system property, default 32). Remaining contexts are closed when
+ * the JVM shuts down.
+ */
+final class ContextCache {
+
+    private static final String MAX_SIZE_PROPERTY = "io.meles.spring.contextCacheSize";
+
+    private static final ContextCache SHARED = new ContextCache(Integer.getInteger(MAX_SIZE_PROPERTY, 32));
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread("spring-rule-context-cache-shutdown") {
+            @Override
+            public void run() {
+                SHARED.clear();
+            }
+        });
+    }
+
+    private final int maxSize;
+    private final ConcurrentMap<Object, CachedContext> contexts = new ConcurrentHashMap<>();
+    private final AtomicLong useCounter = new AtomicLong();
+
+    /**
+     * @param maxSize the number of contexts to keep before closing the least recently used
+     */
+    ContextCache(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the cache shared by every <code>SpringContext</code> in the JVM
+     */
+    static ContextCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Lease the context for <code>key</code>, starting it with <code>contextFactory</code> if it isn't cached. Waits
+     * if the context is being started by another test, or if another test holds the lease.
+     *
+     * @param key            the key of the context
+     * @param contextFactory starts a new context
+     * @param lifecycle      reports whether the context was cached
+     * @return the lease, which returns the context to the cache when closed
+     * @throws Exception if the context failed to start, whichever test started it
+     */
+    ContextLease lease(final Object key, final Callable<? extends ConfigurableApplicationContext> contextFactory,
+                       final ContextLifecycle lifecycle) throws Exception {
+        while (true) {
+            CachedContext cachedContext = contexts.get(key);
+            if (cachedContext == null) {
+                final CachedContext started = new CachedContext(key, contextFactory);
+                cachedContext = contexts.putIfAbsent(key, started);
+                if (cachedContext == null) {
+                    lifecycle.fire(ContextLifecycleEvent.CACHE_MISS);
+                    cachedContext = started;
+                    started.start();
+                    evictLeastRecentlyUsed(started);
+                } else {
+                    lifecycle.fire(ContextLifecycleEvent.CACHE_HIT);
+                }
+            } else {
+                lifecycle.fire(ContextLifecycleEvent.CACHE_HIT);
+            }
+            cachedContext.used();
+            if (cachedContext.lease()) {
+                return cachedContext;
+            }
+            // the context was evicted while we waited for it
+            contexts.remove(key, cachedContext);
+        }
+    }
+
+    /**
+     * Evict started contexts, least recently used first, until the cache is back to its maximum size. Contexts that
+     * are still starting, and the context that has just started, are left alone.
+     */
+    private void evictLeastRecentlyUsed(final CachedContext started) {
+        while (contexts.size() > maxSize) {
+            CachedContext eldest = null;
+            for (final CachedContext cachedContext : contexts.values()) {
+                if (cachedContext != started && cachedContext.isStarted()
+                        && (eldest == null || cachedContext.lastUsed < eldest.lastUsed)) {
+                    eldest = cachedContext;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            if (contexts.remove(eldest.key, eldest)) {
+                eldest.evict();
+            }
+        }
+    }
+
+    /**
+     * Remove the context for <code>key</code> from the cache, closing it once it's no longer leased.
+     *
+     * @param key the key of the context
+     */
+    void evict(final Object key) {
+        final CachedContext cachedContext = contexts.remove(key);
+        if (cachedContext != null) {
+            cachedContext.evict();
+        }
+    }
+
+    /**
+     * Remove every context from the cache, closing those that aren't leased (leased contexts are closed when they
+     * are released, and contexts that are starting once they've started).
+     */
+    void clear() {
+        final List<CachedContext> evicted = new ArrayList<>(contexts.values());
+        for (final CachedContext cachedContext : evicted) {
+            if (contexts.remove(cachedContext.key, cachedContext)) {
+                cachedContext.evict();
+            }
+        }
+    }
+
+    private final class CachedContext extends ContextLease {
+
+        private final Object key;
+        private final FutureTask<? extends ConfigurableApplicationContext> startup;
+        private volatile long lastUsed;
+        private ConfigurableApplicationContext applicationContext;
+        private boolean leased;
+        private boolean evicted;
+        private boolean closed;
+
+        CachedContext(final Object key, final Callable<? extends ConfigurableApplicationContext> contextFactory) {
+            this.key = key;
+            this.startup = startupTask(contextFactory);
+            used();
+        }
+
+        private <T extends ConfigurableApplicationContext> FutureTask<T> startupTask(final Callable<T> contextFactory) {
+            return new FutureTask<>(contextFactory);
+        }
+
+        /**
+         * Start the context on the calling thread.
+         */
+        void start() {
+            startup.run();
+        }
+
+        boolean isStarted() {
+            return startup.isDone();
+        }
+
+        void used() {
+            lastUsed = useCounter.incrementAndGet();
+        }
+
+        @Override
+        synchronized ConfigurableApplicationContext getApplicationContext() {
+            return applicationContext;
+        }
+
+        /**
+         * Wait for the context to start, and then for any other lease to end.
+         *
+         * @return whether the context was leased, it won't be if it was closed while waiting
+         */
+        boolean lease() throws Exception {
+            final ConfigurableApplicationContext started = awaitStartup();
+            synchronized (this) {
+                if (applicationContext == null) {
+                    applicationContext = started;
+                    if (closed) {
+                        // evicted while it was starting
+                        started.close();
+                    }
+                }
+                while (leased && !closed) {
+                    wait();
+                }
+                if (closed) {
+                    return false;
+                }
+                leased = true;
+                return true;
+            }
+        }
+
+        private ConfigurableApplicationContext awaitStartup() throws Exception {
+            try {
+                return startup.get();
+            } catch (ExecutionException e) {
+                // leave the next test to try again
+                contexts.remove(key, this);
+                final Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            leased = false;
+            if (evicted) {
+                closeContext();
+            }
+            notifyAll();
+        }
+
+        @Override
+        void discard() {
+            contexts.remove(key, this);
+            evict();
+            close();
+        }
+
+        synchronized void evict() {
+            evicted = true;
+            if (!leased) {
+                closeContext();
+            }
+            notifyAll();
+        }
+
+        private void closeContext() {
+            if (!closed) {
+                closed = true;
+                if (applicationContext != null) {
+                    applicationContext.close();
+                }
+            }
+        }
+    }
+}
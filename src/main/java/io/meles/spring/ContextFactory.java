@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Starts spring contexts as configured by a {@link SpringContext.Builder}. Shared by the JUnit rule and the JUnit
+ * Jupiter extension.
+ */
+class ContextFactory {
+
+    enum FailurePolicy {
+        RETRY, FAIL, SKIP
+    }
+
+    private final Class<?>[] configClasses;
+    private final Map<String, Object> beans;
+    private final Map<String, SharedFixture<?>> fixtures;
+    private final Map<Class<?>, Object> replacements;
+    private final List<Class<?>> exclusions;
+    private final ClassLoader classLoader;
+    private final ContextKey contextKey;
+    private final ContextInstanceKey instanceKey;
+    private final FailurePolicy failurePolicy;
+    private final RefreshWatchdog refreshWatchdog;
+    private final boolean swappableSingletons;
+
+    ContextFactory(final SpringContext.Builder builder, final boolean swappableSingletons) {
+        this.configClasses = builder.configClasses.toArray(new Class[builder.configClasses.size()]);
+        this.beans = unmodifiableMap(new HashMap<>(builder.beans));
+        this.fixtures = unmodifiableMap(new HashMap<>(builder.fixtures));
+        this.replacements = unmodifiableMap(new LinkedHashMap<>(builder.replacements));
+        this.exclusions = unmodifiableList(new ArrayList<>(builder.exclusions));
+        this.classLoader = builder.classLoader != null ? builder.classLoader : defaultClassLoader(configClasses);
+        final Set<String> singletonNames = new HashSet<>(beans.keySet());
+        singletonNames.addAll(fixtures.keySet());
+        this.contextKey = new ContextKey(builder.configClasses, singletonNames, replacements.keySet(), exclusions);
+        this.failurePolicy = builder.failurePolicy;
+        this.refreshWatchdog = new RefreshWatchdog(builder.refreshWarningNanos, builder.refreshTimeoutNanos);
+        this.swappableSingletons = swappableSingletons;
+        this.instanceKey = new ContextInstanceKey(this);
+    }
+
+    /**
+     * Choose the class loader for contexts built from <code>configClasses</code>. Spring caches the CGLIB subclasses
+     * it generates for <code>@Configuration</code> classes per class loader, so using the same loader for every
+     * context (rather than whatever the thread context class loader happens to be) means the generated classes are
+     * reused each time the context is refreshed.
+     */
+    private static ClassLoader defaultClassLoader(final Class<?>[] configClasses) {
+        if (configClasses.length > 0 && configClasses[0].getClassLoader() != null) {
+            return configClasses[0].getClassLoader();
+        }
+        return ClassUtils.getDefaultClassLoader();
+    }
+
+    ContextKey getContextKey() {
+        return contextKey;
+    }
+
+    /**
+     * @return the key of contexts from this factory that can be shared, as they have the same singleton instances
+     */
+    ContextInstanceKey getInstanceKey() {
+        return instanceKey;
+    }
+
+    /**
+     * @return the singletons registered with contexts from this factory, by name
+     */
+    Map<String, Object> getSingletons() {
+        return beans;
+    }
+
+    /**
+     * @return the fixtures registered with contexts from this factory, by name
+     */
+    Map<String, SharedFixture<?>> getFixtures() {
+        return fixtures;
+    }
+
+    /**
+     * @return the stubs that replace beans, by the type they replace
+     */
+    Map<Class<?>, Object> getReplacements() {
+        return replacements;
+    }
+
+    /**
+     * @param applicationContext a context started by a factory with the same key as this one
+     * @return this factory's singletons, plus its stubs under the names of the beans they replaced in the context,
+     * and references to its fixtures (reusing the context's existing references to the same fixtures)
+     */
+    Map<String, Object> getSingletons(final ConfigurableApplicationContext applicationContext) {
+        if (replacements.isEmpty() && fixtures.isEmpty()) {
+            return beans;
+        }
+        final Map<String, Object> singletons = new HashMap<>(beans);
+        final ConfigurableListableBeanFactory beanFactory = applicationContext.getBeanFactory();
+        if (!replacements.isEmpty()) {
+            final BeanReplacingPostProcessor replacer
+                    = beanFactory.getBean(BeanReplacingPostProcessor.BEAN_NAME, BeanReplacingPostProcessor.class);
+            for (final Entry<String, Class<?>> replaced : replacer.getReplacedBeans().entrySet()) {
+                singletons.put(replaced.getKey(), replacements.get(replaced.getValue()));
+            }
+        }
+        for (final Entry<String, SharedFixture<?>> fixture : fixtures.entrySet()) {
+            final Object registered = beanFactory.getSingleton(fixture.getKey());
+            if (registered instanceof SharedFixture.ContextReference
+                    && ((SharedFixture.ContextReference<?>) registered).getFixture() == fixture.getValue()) {
+                singletons.put(fixture.getKey(), registered);
+            } else {
+                singletons.put(fixture.getKey(), fixture.getValue().newContextReference());
+            }
+        }
+        return singletons;
+    }
+
+    /**
+     * @return a new, refreshed, context
+     * @throws PreviousFailureException if the context failed to start in an earlier test
+     */
+    AnnotationConfigApplicationContext start() {
+        if (failurePolicy != FailurePolicy.RETRY) {
+            final Throwable previousFailure = ContextFailures.get(instanceKey);
+            if (previousFailure != null) {
+                throw new PreviousFailureException(contextKey, previousFailure, failurePolicy == FailurePolicy.SKIP);
+            }
+        }
+
+        final long start = System.nanoTime();
+        final DefaultListableBeanFactory beanFactory = createBeanFactoryWithSingletons();
+        final AnnotationConfigApplicationContext applicationContext = new AnnotationConfigApplicationContext(beanFactory);
+        try {
+            applicationContext.setClassLoader(classLoader);
+            if (refreshWatchdog.isEnabled()) {
+                refreshWatchdog.refresh(contextKey, applicationContext, beanFactory, new Runnable() {
+                    @Override
+                    public void run() {
+                        registerConfig(applicationContext);
+                    }
+                });
+            } else {
+                registerConfig(applicationContext);
+            }
+            final RefreshTimeLog refreshTimeLog = RefreshTimeLog.shared();
+            if (refreshTimeLog != null) {
+                refreshTimeLog.record(contextKey, System.nanoTime() - start, applicationContext.getBeanDefinitionCount());
+            }
+            return applicationContext;
+        } catch (RuntimeException | Error e) {
+            // an abandoned context is still refreshing, the watchdog closes it once the refresh finishes
+            if (!(e instanceof RefreshWatchdog.AbandonedRefreshException)) {
+                applicationContext.close();
+            }
+            // being interrupted (e.g. by a timeout rule) says nothing about whether the context can start
+            if (failurePolicy != FailurePolicy.RETRY
+                    && !(e instanceof RefreshWatchdog.RefreshInterruptedException)) {
+                ContextFailures.record(instanceKey, e);
+            }
+            throw e;
+        }
+    }
+
+    private void registerConfig(final AnnotationConfigApplicationContext applicationContext) {
+        if (configClasses.length > 0) {
+            applicationContext.register(Arrays.copyOf(configClasses, configClasses.length));
+        }
+        applicationContext.refresh();
+    }
+
+    private DefaultListableBeanFactory createBeanFactoryWithSingletons() {
+        final DefaultListableBeanFactory factory
+                = swappableSingletons ? new SingletonSwappingBeanFactory() : new DefaultListableBeanFactory();
+        factory.setBeanClassLoader(classLoader);
+        for (final Entry<String, Object> bean : beans.entrySet()) {
+            factory.registerSingleton(bean.getKey(), bean.getValue());
+        }
+        for (final Entry<String, SharedFixture<?>> fixture : fixtures.entrySet()) {
+            final SharedFixture.ContextReference<?> reference = fixture.getValue().newContextReference();
+            factory.registerSingleton(fixture.getKey(), reference);
+            factory.registerDisposableBean(fixture.getKey(), reference);
+        }
+        if (!replacements.isEmpty() || !exclusions.isEmpty()) {
+            factory.registerSingleton(BeanReplacingPostProcessor.BEAN_NAME,
+                    new BeanReplacingPostProcessor(replacements, exclusions));
+        }
+        return factory;
+    }
+
+    /**
+     * Thrown instead of starting a context that failed to start in an earlier test.
+     */
+    static final class PreviousFailureException extends IllegalStateException {
+
+        private final boolean skip;
+
+        PreviousFailureException(final ContextKey contextKey, final Throwable cause, final boolean skip) {
+            super("spring context " + contextKey + " failed to start in an earlier test", cause);
+            this.skip = skip;
+        }
+
+        /**
+         * @return whether the test should be skipped, rather than failed
+         */
+        boolean isSkip() {
+            return skip;
+        }
+    }
+}
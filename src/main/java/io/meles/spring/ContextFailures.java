@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers spring contexts that failed to start, so that later tests using the same configuration can fail without
+ * refreshing the context again. Shared by every <code>SpringContext</code> in the JVM, as JUnit creates a new rule
+ * for each test.
+ * <p>
+ * Failures are keyed by {@link ContextInstanceKey}, so a failure is only replayed to tests whose singletons and stubs
+ * are the same instances: a context that failed because of one test's mocks may start with another's.
+ * <p>
+ * As tests that create their own mocks never repeat a key, only the most recently used {@value #MAX_SIZE} failures
+ * are remembered.
+ */
+final class ContextFailures {
+
+    static final int MAX_SIZE = 32;
+
+    private static final Map<ContextInstanceKey, Throwable> FAILURES = Collections.synchronizedMap(
+            new LinkedHashMap<ContextInstanceKey, Throwable>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<ContextInstanceKey, Throwable> eldest) {
+                    return size() > MAX_SIZE;
+                }
+            });
+
+    private ContextFailures() {
+    }
+
+    /**
+     * @return the failure recorded for <code>key</code>, or <code>null</code> if the context hasn't failed
+     */
+    static Throwable get(final ContextInstanceKey key) {
+        return FAILURES.get(key);
+    }
+
+    static void record(final ContextInstanceKey key, final Throwable failure) {
+        synchronized (FAILURES) {
+            if (!FAILURES.containsKey(key)) {
+                FAILURES.put(key, failure);
+            }
+        }
+    }
+
+    static void clear() {
+        FAILURES.clear();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Identifies a context that can be shared: as well as having the same {@link ContextKey}, contexts can only be shared
+ * if their singletons, fixtures and stubs are the same instances.
+ */
+final class ContextInstanceKey {
+
+    private final ContextKey contextKey;
+    private final List<Object> singletons;
+
+    ContextInstanceKey(final ContextFactory contextFactory) {
+        this.contextKey = contextFactory.getContextKey();
+        this.singletons = new ArrayList<>();
+        for (final String name : contextKey.getSingletonNames()) {
+            final Object singleton = contextFactory.getSingletons().get(name);
+            singletons.add(singleton != null ? singleton : contextFactory.getFixtures().get(name));
+        }
+        for (final Class<?> type : contextKey.getReplacedTypes()) {
+            singletons.add(contextFactory.getReplacements().get(type));
+        }
+    }
+
+    ContextKey getContextKey() {
+        return contextKey;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final ContextInstanceKey that = (ContextInstanceKey) o;
+        if (!contextKey.equals(that.contextKey)) {
+            return false;
+        }
+        for (int i = 0; i < singletons.size(); i++) {
+            if (singletons.get(i) != that.singletons.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hashCode = contextKey.hashCode();
+        for (final Object singleton : singletons) {
+            hashCode = 31 * hashCode + System.identityHashCode(singleton);
+        }
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return contextKey.toString();
+    }
+}
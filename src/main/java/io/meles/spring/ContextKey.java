@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableSet;
+import static java.util.Collections.unmodifiableSortedSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Identifies the configuration of a spring context: the config classes it is built from, the names of the singletons
+ * registered with it, and the types of bean that are replaced or excluded. Two <code>SpringContext</code>s with equal
+ * keys build equivalent contexts, apart from the singleton and stub instances themselves.
+ */
+public final class ContextKey {
+
+    private final List<Class<?>> configClasses;
+    private final SortedSet<String> singletonNames;
+    private final Set<Class<?>> replacedTypes;
+    private final Set<Class<?>> excludedTypes;
+
+    ContextKey(final Collection<Class<?>> configClasses, final Collection<String> singletonNames) {
+        this(configClasses, singletonNames, Collections.<Class<?>>emptySet(), Collections.<Class<?>>emptySet());
+    }
+
+    ContextKey(final Collection<Class<?>> configClasses, final Collection<String> singletonNames,
+               final Collection<Class<?>> replacedTypes, final Collection<Class<?>> excludedTypes) {
+        this.configClasses = unmodifiableList(new ArrayList<>(configClasses));
+        this.singletonNames = unmodifiableSortedSet(new TreeSet<>(singletonNames));
+        this.replacedTypes = unmodifiableSet(new LinkedHashSet<>(replacedTypes));
+        this.excludedTypes = unmodifiableSet(new LinkedHashSet<>(excludedTypes));
+    }
+
+    /**
+     * @return the config classes, in the order they are registered
+     */
+    public List<Class<?>> getConfigClasses() {
+        return configClasses;
+    }
+
+    /**
+     * @return the names of the additional singletons
+     */
+    public SortedSet<String> getSingletonNames() {
+        return singletonNames;
+    }
+
+    /**
+     * @return the types of bean replaced by stubs
+     */
+    public Set<Class<?>> getReplacedTypes() {
+        return replacedTypes;
+    }
+
+    /**
+     * @return the types of bean excluded from the context
+     */
+    public Set<Class<?>> getExcludedTypes() {
+        return excludedTypes;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final ContextKey that = (ContextKey) o;
+        return configClasses.equals(that.configClasses)
+                && singletonNames.equals(that.singletonNames)
+                && replacedTypes.equals(that.replacedTypes)
+                && excludedTypes.equals(that.excludedTypes);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = configClasses.hashCode();
+        result = 31 * result + singletonNames.hashCode();
+        result = 31 * result + replacedTypes.hashCode();
+        result = 31 * result + excludedTypes.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        appendClassNames(builder, configClasses);
+        if (!singletonNames.isEmpty()) {
+            builder.append(" with singletons ").append(singletonNames);
+        }
+        if (!replacedTypes.isEmpty()) {
+            builder.append(" replacing ");
+            appendClassNames(builder, replacedTypes);
+        }
+        if (!excludedTypes.isEmpty()) {
+            builder.append(" excluding ");
+            appendClassNames(builder, excludedTypes);
+        }
+        return builder.toString();
+    }
+
+    private static void appendClassNames(final StringBuilder builder, final Collection<Class<?>> classes) {
+        builder.append('[');
+        String separator = "";
+        for (final Class<?> type : classes) {
+            builder.append(separator).append(type.getName());
+            separator = ", ";
+        }
+        builder.append(']');
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * The use of a spring context for a single test execution. Closing the lease ends the test's use of the context,
+ * which may or may not close the context itself.
+ */
+abstract class ContextLease implements AutoCloseable {
+
+    abstract ConfigurableApplicationContext getApplicationContext();
+
+    @Override
+    public abstract void close();
+
+    /**
+     * End the lease on a context that is no longer usable (e.g. it failed part way through being changed for a test).
+     */
+    abstract void discard();
+
+    /**
+     * @return a lease on a context used by a single test, the context is closed with the lease
+     */
+    static ContextLease owned(final ConfigurableApplicationContext applicationContext) {
+        return new ContextLease() {
+            @Override
+            ConfigurableApplicationContext getApplicationContext() {
+                return applicationContext;
+            }
+
+            @Override
+            public void close() {
+                applicationContext.close();
+            }
+
+            @Override
+            void discard() {
+                close();
+            }
+        };
+    }
+}
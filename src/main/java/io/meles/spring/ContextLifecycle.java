@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import java.util.List;
+
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Reports the {@link ContextLifecycleEvent}s of one configuration to its {@link ContextLifecycleListener}s. Firing an
+ * event when there are no listeners does nothing, and allocates nothing.
+ */
+final class ContextLifecycle {
+
+    private final ContextKey contextKey;
+    private final ContextLifecycleListener[] listeners;
+
+    ContextLifecycle(final ContextKey contextKey, final List<ContextLifecycleListener> listeners) {
+        this.contextKey = contextKey;
+        this.listeners = listeners.toArray(new ContextLifecycleListener[listeners.size()]);
+    }
+
+    void fire(final ContextLifecycleEvent event) {
+        if (listeners.length == 0) {
+            return;
+        }
+        final long nanoTime = System.nanoTime();
+        for (final ContextLifecycleListener listener : listeners) {
+            listener.contextEvent(event, contextKey, nanoTime);
+        }
+    }
+
+    /**
+     * @param lease a lease on a test's context
+     * @return a lease that fires the close events around closing <code>lease</code>, or <code>lease</code> itself if
+     * there are no listeners
+     */
+    ContextLease observe(final ContextLease lease) {
+        if (listeners.length == 0) {
+            return lease;
+        }
+        return new ContextLease() {
+            @Override
+            ConfigurableApplicationContext getApplicationContext() {
+                return lease.getApplicationContext();
+            }
+
+            @Override
+            public void close() {
+                fire(ContextLifecycleEvent.CLOSE_STARTED);
+                try {
+                    lease.close();
+                } finally {
+                    fire(ContextLifecycleEvent.CLOSE_FINISHED);
+                }
+            }
+
+            @Override
+            void discard() {
+                lease.discard();
+            }
+        };
+    }
+}
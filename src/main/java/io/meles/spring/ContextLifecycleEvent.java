@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+/**
+ * The points in the lifecycle of a test's spring context reported to {@link ContextLifecycleListener}s, in the order
+ * they happen. Cache events only happen when the context is cached, and refresh events only when a new context is
+ * started.
+ */
+public enum ContextLifecycleEvent {
+
+    /**
+     * A test has started and needs its context.
+     */
+    REQUESTED,
+
+    /**
+     * The test's context was found in the cache.
+     */
+    CACHE_HIT,
+
+    /**
+     * The test's context wasn't in the cache, so it will be started and cached.
+     */
+    CACHE_MISS,
+
+    /**
+     * A new context is being created and refreshed.
+     */
+    REFRESH_STARTED,
+
+    /**
+     * A new context has been refreshed, or failed to refresh.
+     */
+    REFRESH_FINISHED,
+
+    /**
+     * The autowire targets are being autowired from the context.
+     */
+    AUTOWIRE_STARTED,
+
+    /**
+     * The autowire targets have been autowired.
+     */
+    AUTOWIRE_FINISHED,
+
+    /**
+     * The test has finished and its context is being closed (or returned to the cache).
+     */
+    CLOSE_STARTED,
+
+    /**
+     * The test's context has been closed (or returned to the cache).
+     */
+    CLOSE_FINISHED
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+/**
+ * Receives the {@link ContextLifecycleEvent}s of the contexts managed by a <code>SpringContext</code>, e.g. to feed
+ * them to a profiler or log aggregator.
+ * <p>
+ * Listeners are called synchronously on the thread running the test, so they should return quickly.
+ *
+ * @see SpringContext.Builder#listen(ContextLifecycleListener...)
+ * @see JfrContextLifecycleListener
+ */
+public interface ContextLifecycleListener {
+
+    /**
+     * @param event      what happened
+     * @param contextKey identifies the configuration of the context
+     * @param nanoTime   when it happened, from {@link System#nanoTime()}
+     */
+    void contextEvent(ContextLifecycleEvent event, ContextKey contextKey, long nanoTime);
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import java.util.List;
+
+import org.junit.runner.Description;
+
+/**
+ * Measures the phases of a single test execution and reports them to the {@link ExecutionMetricsListener}s.
+ */
+class ExecutionMeter {
+
+    /**
+     * A meter that measures nothing, used when there are no listeners.
+     */
+    static final ExecutionMeter NONE = new ExecutionMeter() {
+        @Override
+        void setupComplete() {
+        }
+
+        @Override
+        void testComplete() {
+        }
+
+        @Override
+        void executionComplete() {
+        }
+    };
+
+    private final Description description;
+    private final List<ExecutionMetricsListener> listeners;
+    private final ResourceUsage.Snapshot start;
+    private ResourceUsage.Snapshot setupEnd;
+    private ResourceUsage.Snapshot testEnd;
+
+    private ExecutionMeter() {
+        this.description = null;
+        this.listeners = null;
+        this.start = null;
+    }
+
+    private ExecutionMeter(final Description description, final List<ExecutionMetricsListener> listeners) {
+        this.description = description;
+        this.listeners = listeners;
+        this.start = ResourceUsage.Snapshot.take();
+    }
+
+    static ExecutionMeter start(final Description description, final List<ExecutionMetricsListener> listeners) {
+        return listeners.isEmpty() ? NONE : new ExecutionMeter(description, listeners);
+    }
+
+    void setupComplete() {
+        setupEnd = ResourceUsage.Snapshot.take();
+    }
+
+    void testComplete() {
+        testEnd = ResourceUsage.Snapshot.take();
+    }
+
+    void executionComplete() {
+        final ResourceUsage.Snapshot end = ResourceUsage.Snapshot.take();
+        // a phase that never completed (e.g. the context failed to start) is treated as running to the end
+        final ResourceUsage.Snapshot setupEnd = this.setupEnd == null ? end : this.setupEnd;
+        final ResourceUsage.Snapshot testEnd = this.testEnd == null ? end : this.testEnd;
+        final ExecutionMetrics metrics = new ExecutionMetrics(
+                description,
+                start.usageUntil(setupEnd),
+                setupEnd.usageUntil(testEnd),
+                testEnd.usageUntil(end));
+        for (final ExecutionMetricsListener listener : listeners) {
+            listener.executionMeasured(metrics);
+        }
+    }
+}
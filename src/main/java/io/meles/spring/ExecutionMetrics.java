@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import org.junit.runner.Description;
+
+/**
+ * The resources used by a single test execution, split into the phases of the <code>SpringContext</code> lifecycle.
+ */
+public final class ExecutionMetrics {
+
+    private final Description description;
+    private final ResourceUsage contextSetup;
+    private final ResourceUsage testBody;
+    private final ResourceUsage contextTeardown;
+
+    ExecutionMetrics(final Description description, final ResourceUsage contextSetup, final ResourceUsage testBody,
+                     final ResourceUsage contextTeardown) {
+        this.description = description;
+        this.contextSetup = contextSetup;
+        this.testBody = testBody;
+        this.contextTeardown = contextTeardown;
+    }
+
+    /**
+     * @return the description of the test that was executed
+     */
+    public Description getDescription() {
+        return description;
+    }
+
+    /**
+     * @return the resources used creating, refreshing and autowiring the spring context
+     */
+    public ResourceUsage getContextSetup() {
+        return contextSetup;
+    }
+
+    /**
+     * @return the resources used by the test itself
+     */
+    public ResourceUsage getTestBody() {
+        return testBody;
+    }
+
+    /**
+     * @return the resources used closing the spring context
+     */
+    public ResourceUsage getContextTeardown() {
+        return contextTeardown;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionMetrics{" +
+                "description=" + description +
+                ", contextSetup=" + contextSetup +
+                ", testBody=" + testBody +
+                ", contextTeardown=" + contextTeardown +
+                '}';
+    }
+}
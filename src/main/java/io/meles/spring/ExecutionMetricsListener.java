@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+/**
+ * Receives the {@link ExecutionMetrics} of each test execution measured by a <code>SpringContext</code>.
+ *
+ * @see SpringContext.Builder#measure(ExecutionMetricsListener...)
+ */
+public interface ExecutionMetricsListener {
+
+    /**
+     * Called once a test execution, including closing its spring context, has finished.
+     *
+     * @param metrics the resources used by the execution
+     */
+    void executionMeasured(ExecutionMetrics metrics);
+}
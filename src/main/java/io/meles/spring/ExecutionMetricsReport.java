@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An {@link ExecutionMetricsListener} that appends a tab separated line to a report file for each test execution.
+ * <p>
+ * Every <code>SpringContext</code> in a suite can share the same report file, giving one row per test with the
+ * resources used by context setup, the test body and context teardown. A header row is written when the file is
+ * first created.
+ */
+public class ExecutionMetricsReport implements ExecutionMetricsListener {
+
+    private static final String[] PHASES = {"setup", "test", "teardown"};
+    private static final String[] COLUMNS = {"elapsedNanos", "allocatedBytes", "gcCount", "gcTimeMillis", "loadedClasses"};
+    private static final String HEADER = header();
+
+    private final File reportFile;
+
+    /**
+     * @param reportFile the file to append to, it (and its parent directories) will be created if necessary
+     */
+    public ExecutionMetricsReport(final File reportFile) {
+        this.reportFile = reportFile;
+    }
+
+    @Override
+    public void executionMeasured(final ExecutionMetrics metrics) {
+        final StringBuilder line = new StringBuilder(metrics.getDescription().getDisplayName());
+        appendUsage(line, metrics.getContextSetup());
+        appendUsage(line, metrics.getTestBody());
+        appendUsage(line, metrics.getContextTeardown());
+        line.append('\n');
+        try {
+            ReportFiles.append(reportFile, HEADER, line);
+        } catch (IOException e) {
+            throw new IllegalStateException("unable to write execution metrics to " + reportFile, e);
+        }
+    }
+
+    private static String header() {
+        final StringBuilder header = new StringBuilder("test");
+        for (final String phase : PHASES) {
+            for (final String column : COLUMNS) {
+                header.append('\t').append(phase).append('.').append(column);
+            }
+        }
+        return header.append('\n').toString();
+    }
+
+    private static void appendUsage(final StringBuilder line, final ResourceUsage usage) {
+        line.append('\t').append(String.valueOf(usage.getElapsedNanos()))
+                .append('\t').append(String.valueOf(usage.getAllocatedBytes()))
+                .append('\t').append(String.valueOf(usage.getGcCount()))
+                .append('\t').append(String.valueOf(usage.getGcTimeMillis()))
+                .append('\t').append(String.valueOf(usage.getLoadedClasses()));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A {@link ContextLifecycleListener} that records Java Flight Recorder events, so that the time a suite spends on
+ * spring contexts shows up in a recording alongside everything else.
+ * <p>
+ * Refreshing, autowiring and closing each record a <code>io.meles.spring.ContextPhase</code> event spanning the
+ * phase, and requests and cache lookups record an instant <code>io.meles.spring.ContextLookup</code> event. Both are
+ * in the "Spring Rule" category. Recording them needs a JDK with the <code>jdk.jfr</code> API (8u262 or later).
+ * <pre>
+ * java -XX:StartFlightRecording=filename=tests.jfr ...
+ * </pre>
+ */
+public class JfrContextLifecycleListener implements ContextLifecycleListener {
+
+    private final ThreadLocal<Map<ContextLifecycleEvent, PhaseEvent>> phasesInProgress
+            = new ThreadLocal<Map<ContextLifecycleEvent, PhaseEvent>>() {
+        @Override
+        protected Map<ContextLifecycleEvent, PhaseEvent> initialValue() {
+            return new EnumMap<>(ContextLifecycleEvent.class);
+        }
+    };
+
+    @Override
+    public void contextEvent(final ContextLifecycleEvent event, final ContextKey contextKey, final long nanoTime) {
+        switch (event) {
+            case REQUESTED:
+            case CACHE_HIT:
+            case CACHE_MISS:
+                lookup(event, contextKey);
+                break;
+            case REFRESH_STARTED:
+            case AUTOWIRE_STARTED:
+            case CLOSE_STARTED:
+                beginPhase(event);
+                break;
+            case REFRESH_FINISHED:
+                endPhase(ContextLifecycleEvent.REFRESH_STARTED, "refresh", contextKey);
+                break;
+            case AUTOWIRE_FINISHED:
+                endPhase(ContextLifecycleEvent.AUTOWIRE_STARTED, "autowire", contextKey);
+                break;
+            case CLOSE_FINISHED:
+                endPhase(ContextLifecycleEvent.CLOSE_STARTED, "close", contextKey);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown event " + event);
+        }
+    }
+
+    private static void lookup(final ContextLifecycleEvent event, final ContextKey contextKey) {
+        final LookupEvent lookup = new LookupEvent();
+        if (lookup.shouldCommit()) {
+            lookup.event = event.name();
+            lookup.contextKey = contextKey.toString();
+            lookup.commit();
+        }
+    }
+
+    private void beginPhase(final ContextLifecycleEvent start) {
+        final PhaseEvent phase = new PhaseEvent();
+        phase.begin();
+        phasesInProgress.get().put(start, phase);
+    }
+
+    private void endPhase(final ContextLifecycleEvent start, final String name, final ContextKey contextKey) {
+        final PhaseEvent phase = phasesInProgress.get().remove(start);
+        if (phase == null) {
+            return;
+        }
+        phase.end();
+        if (phase.shouldCommit()) {
+            phase.phase = name;
+            phase.contextKey = contextKey.toString();
+            phase.commit();
+        }
+    }
+
+    @Name("io.meles.spring.ContextPhase")
+    @Label("Spring Context Phase")
+    @Description("Refreshing, autowiring or closing a test's spring context")
+    @Category("Spring Rule")
+    static class PhaseEvent extends Event {
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Context")
+        String contextKey;
+    }
+
+    @Name("io.meles.spring.ContextLookup")
+    @Label("Spring Context Lookup")
+    @Description("A test requesting its spring context, and whether it was cached")
+    @Category("Spring Rule")
+    static class LookupEvent extends Event {
+
+        @Label("Event")
+        String event;
+
+        @Label("Context")
+        String contextKey;
+    }
+}
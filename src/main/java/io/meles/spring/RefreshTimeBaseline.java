@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the refresh times recorded by a test run against a baseline, so that a change that makes contexts slower to
+ * start (or adds beans to them) fails the build instead of going unnoticed.
+ * <p>
+ * Refresh times are recorded by running the tests with the <code>io.meles.spring.refreshTimes</code> system property
+ * set to a file. Each context's refresh time is the median of the times recorded for its {@link ContextKey}, and its
+ * bean count the largest recorded. The baseline file is written from a recording with <code>--update</code>, and
+ * checked in. A context regresses when its refresh time exceeds the baseline by more than the time tolerance (a
+ * percentage, plus a slack in milliseconds so that small contexts don't fail on noise), or its bean count exceeds
+ * the baseline by more than the bean count tolerance. Contexts that aren't in the baseline are ignored.
+ * <p>
+ * The {@link #main(String[])} method makes the check easy to run from the build, e.g. with the exec-maven-plugin in
+ * the <code>verify</code> phase:
+ * <pre>
+ * java io.meles.spring.RefreshTimeBaseline target/refresh-times.txt src/test/refresh-baseline.txt
+ * </pre>
+ */
+public final class RefreshTimeBaseline {
+
+    /**
+     * The system property for the time tolerance, as a percentage of the baseline, default 50.
+     */
+    public static final String TIME_TOLERANCE_PROPERTY = "io.meles.spring.refreshTimeTolerance";
+
+    /**
+     * The system property for the time slack, in milliseconds, default 100.
+     */
+    public static final String TIME_SLACK_PROPERTY = "io.meles.spring.refreshTimeSlackMillis";
+
+    /**
+     * The system property for the bean count tolerance, default 0.
+     */
+    public static final String BEAN_COUNT_TOLERANCE_PROPERTY = "io.meles.spring.beanCountTolerance";
+
+    private static final String BASELINE_HEADER = "context\trefreshMillis\tbeanCount";
+
+    private final int timeTolerancePercent;
+    private final long timeSlackMillis;
+    private final int beanCountTolerance;
+
+    /**
+     * @param timeTolerancePercent how much slower, as a percentage of the baseline, a context can be to refresh
+     * @param timeSlackMillis      how much slower, in milliseconds, a context can be to refresh on top of that
+     * @param beanCountTolerance   how many more beans a context can have than the baseline
+     */
+    public RefreshTimeBaseline(final int timeTolerancePercent, final long timeSlackMillis,
+                               final int beanCountTolerance) {
+        this.timeTolerancePercent = timeTolerancePercent;
+        this.timeSlackMillis = timeSlackMillis;
+        this.beanCountTolerance = beanCountTolerance;
+    }
+
+    /**
+     * Check, or with <code>--update</code> write, a baseline. Tolerances are taken from system properties. Failures
+     * are thrown rather than ending the JVM, so that the check can run inside the build's own JVM (e.g. with the
+     * exec-maven-plugin's <code>java</code> goal) and fail the build.
+     *
+     * @param args the recorded refresh times, the baseline, and optionally <code>--update</code>
+     * @throws IllegalArgumentException if the arguments aren't valid
+     * @throws IllegalStateException    if a context has regressed, with a message describing each regression
+     * @throws IOException              if a file can't be read or written
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3 || (args.length == 3 && !"--update".equals(args[2]))) {
+            throw new IllegalArgumentException(
+                    "usage: RefreshTimeBaseline <recorded refresh times> <baseline> [--update]");
+        }
+        final RefreshTimeBaseline baseline = new RefreshTimeBaseline(
+                Integer.getInteger(TIME_TOLERANCE_PROPERTY, 50),
+                Long.getLong(TIME_SLACK_PROPERTY, 100),
+                Integer.getInteger(BEAN_COUNT_TOLERANCE_PROPERTY, 0));
+        final File recorded = new File(args[0]);
+        final File baselineFile = new File(args[1]);
+        if (args.length == 3) {
+            baseline.update(recorded, baselineFile);
+            return;
+        }
+        final List<String> regressions = baseline.check(recorded, baselineFile);
+        if (!regressions.isEmpty()) {
+            final StringBuilder message = new StringBuilder("refresh times regressed against ").append(baselineFile);
+            for (final String regression : regressions) {
+                message.append("\n\t").append(regression);
+            }
+            throw new IllegalStateException(message.toString());
+        }
+    }
+
+    /**
+     * @param recorded the refresh times recorded by a test run
+     * @param baseline the baseline
+     * @return a description of each regression, empty if there are none
+     * @throws IOException if a file can't be read
+     */
+    public List<String> check(final File recorded, final File baseline) throws IOException {
+        final Map<String, Summary> expected = readBaseline(baseline);
+        final List<String> regressions = new ArrayList<>();
+        for (final Entry<String, Summary> actual : summarise(recorded).entrySet()) {
+            final Summary limit = expected.get(actual.getKey());
+            if (limit == null) {
+                continue;
+            }
+            final long maxMillis = limit.refreshMillis * (100 + timeTolerancePercent) / 100 + timeSlackMillis;
+            if (actual.getValue().refreshMillis > maxMillis) {
+                regressions.add(actual.getKey() + " took " + actual.getValue().refreshMillis
+                        + "ms to refresh, baseline " + limit.refreshMillis + "ms, limit " + maxMillis + "ms");
+            }
+            final int maxBeans = limit.beanCount + beanCountTolerance;
+            if (actual.getValue().beanCount > maxBeans) {
+                regressions.add(actual.getKey() + " has " + actual.getValue().beanCount
+                        + " beans, baseline " + limit.beanCount + ", limit " + maxBeans);
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Write a baseline from recorded refresh times.
+     *
+     * @param recorded the refresh times recorded by a test run
+     * @param baseline the baseline to write
+     * @throws IOException if a file can't be read or written
+     */
+    public void update(final File recorded, final File baseline) throws IOException {
+        final Map<String, Summary> summaries = summarise(recorded);
+        try (final Writer writer = ReportFiles.newWriter(baseline, false)) {
+            writer.append(BASELINE_HEADER).append('\n');
+            for (final Entry<String, Summary> summary : summaries.entrySet()) {
+                writer.append(summary.getKey())
+                        .append('\t').append(String.valueOf(summary.getValue().refreshMillis))
+                        .append('\t').append(String.valueOf(summary.getValue().beanCount))
+                        .append('\n');
+            }
+        }
+    }
+
+    private static Map<String, Summary> summarise(final File recorded) throws IOException {
+        final Map<String, List<Long>> refreshNanos = new TreeMap<>();
+        final Map<String, Integer> beanCounts = new TreeMap<>();
+        for (final String[] fields : read(recorded)) {
+            List<Long> times = refreshNanos.get(fields[0]);
+            if (times == null) {
+                times = new ArrayList<>();
+                refreshNanos.put(fields[0], times);
+            }
+            times.add(Long.parseLong(fields[1]));
+            final Integer beanCount = beanCounts.get(fields[0]);
+            beanCounts.put(fields[0], Math.max(beanCount == null ? 0 : beanCount, Integer.parseInt(fields[2])));
+        }
+        final Map<String, Summary> summaries = new TreeMap<>();
+        for (final Entry<String, List<Long>> times : refreshNanos.entrySet()) {
+            Collections.sort(times.getValue());
+            final long medianNanos = times.getValue().get(times.getValue().size() / 2);
+            summaries.put(times.getKey(),
+                    new Summary(TimeUnit.NANOSECONDS.toMillis(medianNanos), beanCounts.get(times.getKey())));
+        }
+        return summaries;
+    }
+
+    private static Map<String, Summary> readBaseline(final File baseline) throws IOException {
+        final Map<String, Summary> summaries = new TreeMap<>();
+        for (final String[] fields : read(baseline)) {
+            // the header is the only line without a number of milliseconds
+            if (!"refreshMillis".equals(fields[1])) {
+                summaries.put(fields[0], new Summary(Long.parseLong(fields[1]), Integer.parseInt(fields[2])));
+            }
+        }
+        return summaries;
+    }
+
+    private static List<String[]> read(final File file) throws IOException {
+        final List<String[]> lines = new ArrayList<>();
+        try (final BufferedReader reader
+                     = new BufferedReader(new InputStreamReader(new FileInputStream(file), ReportFiles.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                final String[] fields = line.split("\t");
+                if (fields.length != 3) {
+                    throw new IOException("expected 3 tab separated fields in " + file + ", found: " + line);
+                }
+                lines.add(fields);
+            }
+        }
+        return lines;
+    }
+
+    private static final class Summary {
+
+        private final long refreshMillis;
+        private final int beanCount;
+
+        Summary(final long refreshMillis, final int beanCount) {
+            this.refreshMillis = refreshMillis;
+            this.beanCount = beanCount;
+        }
+    }
+}
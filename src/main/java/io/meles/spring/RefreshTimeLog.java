@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Appends the refresh time and bean count of every context that starts to a file, for checking against a
+ * {@link RefreshTimeBaseline}.
+ * <p>
+ * Recording is enabled by setting the <code>io.meles.spring.refreshTimes</code> system property to the path of the
+ * file. Each line is the {@link ContextKey}, the refresh time in nanoseconds and the number of bean definitions,
+ * separated by tabs. Every JVM in the build (e.g. surefire and failsafe forks) can append to the same file.
+ */
+final class RefreshTimeLog {
+
+    static final String FILE_PROPERTY = "io.meles.spring.refreshTimes";
+
+    private static final RefreshTimeLog SHARED = createShared();
+
+    private final File logFile;
+
+    RefreshTimeLog(final File logFile) {
+        this.logFile = logFile;
+    }
+
+    private static RefreshTimeLog createShared() {
+        final String logFile = System.getProperty(FILE_PROPERTY);
+        return logFile == null ? null : new RefreshTimeLog(new File(logFile));
+    }
+
+    /**
+     * @return the log for the JVM, or <code>null</code> if recording isn't enabled
+     */
+    static RefreshTimeLog shared() {
+        return SHARED;
+    }
+
+    void record(final ContextKey contextKey, final long refreshNanos, final int beanCount) {
+        try {
+            ReportFiles.append(logFile, null, contextKey + "\t" + refreshNanos + "\t" + beanCount + "\n");
+        } catch (IOException e) {
+            throw new IllegalStateException("unable to write refresh time to " + logFile, e);
+        }
+    }
+}
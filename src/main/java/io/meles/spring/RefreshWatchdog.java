@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Refreshes a context on its own thread, so that a refresh that hangs (e.g. a bean blocked on a network call) can be
+ * reported while it's happening, and abandoned once it passes a deadline.
+ * <p>
+ * When the warning threshold passes the stack of the refreshing thread, and the beans currently being created, are
+ * logged. When the deadline passes the refreshing thread is interrupted and a {@link RefreshTimeoutException} is
+ * thrown with the same information. A context that finishes refreshing after it was abandoned is closed.
+ * <p>
+ * The bytes allocated by the refreshing thread are attributed to the waiting thread (see
+ * {@link ResourceUsage.Snapshot#attributeAllocatedBytes(long)}), so that measuring a test still counts the refresh.
+ */
+class RefreshWatchdog {
+
+    private static final Log LOG = LogFactory.getLog(RefreshWatchdog.class);
+
+    private final long warningNanos;
+    private final long timeoutNanos;
+
+    /**
+     * @param warningNanos how long a refresh can take before it's logged, or zero for no warning
+     * @param timeoutNanos how long a refresh can take before it fails, or zero for no deadline
+     */
+    RefreshWatchdog(final long warningNanos, final long timeoutNanos) {
+        this.warningNanos = warningNanos;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * @return whether refreshes need watching, if not the caller can refresh on its own thread
+     */
+    boolean isEnabled() {
+        return warningNanos > 0 || timeoutNanos > 0;
+    }
+
+    /**
+     * Run <code>refresh</code> on a new thread, waiting for it to finish.
+     *
+     * @param contextKey         identifies the context in log messages and failures
+     * @param applicationContext the context being refreshed
+     * @param beanFactory        the context's bean factory, to find the beans being created
+     * @param refresh            refreshes the context
+     * @throws RefreshTimeoutException     if the refresh doesn't finish before the deadline
+     * @throws RefreshInterruptedException if the waiting thread is interrupted
+     */
+    void refresh(final ContextKey contextKey, final ConfigurableApplicationContext applicationContext,
+                 final DefaultListableBeanFactory beanFactory, final Runnable refresh) {
+        final AtomicReference<State> state = new AtomicReference<>(State.RUNNING);
+        final AtomicLong allocatedBytes = new AtomicLong(-1);
+        final FutureTask<Void> task = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh.run();
+                } finally {
+                    allocatedBytes.set(ResourceUsage.Snapshot.allocatedBytes(Thread.currentThread()));
+                    if (!state.compareAndSet(State.RUNNING, State.FINISHED)) {
+                        // the waiting thread abandoned the context, leaving it to this thread to close
+                        applicationContext.close();
+                    }
+                }
+            }
+        }, null);
+        final Thread thread = new Thread(task, "spring-context-refresh " + contextKey);
+        thread.setDaemon(true);
+        thread.setContextClassLoader(Thread.currentThread().getContextClassLoader());
+
+        final long start = System.nanoTime();
+        thread.start();
+        try {
+            if (warningNanos > 0 && (timeoutNanos == 0 || warningNanos < timeoutNanos)) {
+                try {
+                    task.get(warningNanos, NANOSECONDS);
+                } catch (TimeoutException e) {
+                    LOG.warn("spring context " + contextKey + " is still refreshing after "
+                            + describe(System.nanoTime() - start, thread, beanFactory));
+                }
+            }
+            if (timeoutNanos > 0) {
+                final long remaining = timeoutNanos - (System.nanoTime() - start);
+                try {
+                    task.get(Math.max(remaining, 0), NANOSECONDS);
+                } catch (TimeoutException e) {
+                    final StackTraceElement[] stackTrace = thread.getStackTrace();
+                    final RefreshTimeoutException timeout = new RefreshTimeoutException("spring context " + contextKey
+                            + " did not refresh within " + describe(timeoutNanos, thread, beanFactory));
+                    timeout.setStackTrace(stackTrace);
+                    abandon(state, thread, applicationContext);
+                    throw timeout;
+                }
+            }
+            task.get();
+        } catch (InterruptedException e) {
+            abandon(state, thread, applicationContext);
+            Thread.currentThread().interrupt();
+            throw new RefreshInterruptedException(
+                    "interrupted waiting for spring context " + contextKey + " to refresh", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            // a thread that's still refreshing is asked directly, the bytes of one that has finished were kept
+            ResourceUsage.Snapshot.attributeAllocatedBytes(state.get() == State.FINISHED
+                    ? allocatedBytes.get()
+                    : ResourceUsage.Snapshot.allocatedBytes(thread));
+        }
+    }
+
+    /**
+     * Leave the context to the refreshing thread, which closes it once the refresh finishes. If it has already
+     * finished (between timing out and getting here) it's closed now.
+     */
+    private static void abandon(final AtomicReference<State> state, final Thread thread,
+                                final ConfigurableApplicationContext applicationContext) {
+        if (state.compareAndSet(State.RUNNING, State.ABANDONED)) {
+            thread.interrupt();
+        } else {
+            applicationContext.close();
+        }
+    }
+
+    /**
+     * The refresh moves from running to finished on the refreshing thread, or to abandoned on the waiting thread,
+     * and whichever thread loses the race closes the context.
+     */
+    private enum State {
+        RUNNING, FINISHED, ABANDONED
+    }
+
+    private static String describe(final long elapsedNanos, final Thread thread,
+                                   final DefaultListableBeanFactory beanFactory) {
+        final StringBuilder description = new StringBuilder()
+                .append(NANOSECONDS.toMillis(elapsedNanos)).append("ms, creating beans ")
+                .append(beansInCreation(beanFactory))
+                .append(", refreshing thread:");
+        for (final StackTraceElement element : thread.getStackTrace()) {
+            description.append("\n\tat ").append(element);
+        }
+        return description.toString();
+    }
+
+    private static List<String> beansInCreation(final DefaultListableBeanFactory beanFactory) {
+        final List<String> beansInCreation = new ArrayList<>();
+        for (final String beanName : beanFactory.getBeanDefinitionNames()) {
+            if (beanFactory.isCurrentlyInCreation(beanName)) {
+                beansInCreation.add(beanName);
+            }
+        }
+        return beansInCreation;
+    }
+
+    /**
+     * Thrown when the context was left to the refreshing thread, which closes it once the refresh finishes, rather
+     * than being closed by the caller. Closing it from another thread would wait for the refresh.
+     */
+    abstract static class AbandonedRefreshException extends IllegalStateException {
+
+        AbandonedRefreshException(final String message, final Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Thrown when a context doesn't refresh before the deadline. Its stack trace is that of the refreshing thread
+     * when the deadline passed.
+     */
+    static final class RefreshTimeoutException extends AbandonedRefreshException {
+
+        RefreshTimeoutException(final String message) {
+            super(message, null);
+        }
+    }
+
+    /**
+     * Thrown when the thread waiting for a refresh is interrupted (e.g. by a timeout rule).
+     */
+    static final class RefreshInterruptedException extends AbandonedRefreshException {
+
+        RefreshInterruptedException(final String message, final InterruptedException cause) {
+            super(message, cause);
+        }
+    }
+}
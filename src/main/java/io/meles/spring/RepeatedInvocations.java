@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * A class rule that lets the tests of a class share a context when the same configuration is invoked again, e.g. each
+ * row of a <code>Parameterized</code> test, or a test re-run by a repeating rule. Contexts are shared between the
+ * tests of the class whose <code>SpringContext</code> uses it (see
+ * {@link SpringContext.Builder#reuseAcrossInvocations(RepeatedInvocations)}), and closed when the class finishes.
+ * <p>
+ * <pre>
+ * &#64;ClassRule
+ * public static RepeatedInvocations invocations = new RepeatedInvocations();
+ *
+ * &#64;Rule
+ * public SpringContext springContext = SpringContext.builder()
+ *         .config(SomeConfig.class)
+ *         .reuseAcrossInvocations(invocations)
+ *         .autowire(this)
+ *         .build();
+ * </pre>
+ * Each invocation's context is cached until an invocation with the same configuration but different singleton
+ * instances replaces it, so invocations whose singletons are created per test instance (e.g. mocks in instance
+ * fields) get a context each, and at most one of them is open at a time.
+ */
+public final class RepeatedInvocations implements TestRule {
+
+    private final ContextCache contexts = new ContextCache(Integer.MAX_VALUE);
+    private final ConcurrentMap<ContextKey, ContextInstanceKey> previousInvocations = new ConcurrentHashMap<>();
+    private volatile boolean active;
+
+    @Override
+    public Statement apply(final Statement base, final Description description) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                active = true;
+                try {
+                    base.evaluate();
+                } finally {
+                    active = false;
+                    previousInvocations.clear();
+                    contexts.clear();
+                }
+            }
+        };
+    }
+
+    /**
+     * Lease a context for an invocation, reusing the previous invocation's context if it has the same configuration
+     * and singletons, otherwise closing it.
+     *
+     * @param instanceKey    identifies the context the invocation needs
+     * @param contextFactory starts a new context
+     * @param lifecycle      reports whether a cached context was used
+     * @return the lease, which returns the context to the cache when closed
+     * @throws IllegalStateException if this isn't applied as a class rule
+     * @throws Exception             if the context failed to start
+     */
+    ContextLease lease(final ContextInstanceKey instanceKey,
+                       final Callable<? extends ConfigurableApplicationContext> contextFactory,
+                       final ContextLifecycle lifecycle) throws Exception {
+        if (!active) {
+            throw new IllegalStateException("RepeatedInvocations must be a @ClassRule of the test class");
+        }
+        final ContextInstanceKey previous = previousInvocations.put(instanceKey.getContextKey(), instanceKey);
+        if (previous != null && !previous.equals(instanceKey)) {
+            contexts.evict(previous);
+        }
+        return contexts.lease(instanceKey, contextFactory, lifecycle);
+    }
+}
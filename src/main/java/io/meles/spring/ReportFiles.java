@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes the report and log files the rule produces, all of them UTF-8 text.
+ */
+final class ReportFiles {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ReportFiles() {
+    }
+
+    /**
+     * Append <code>lines</code> to <code>file</code>. Appends are made one at a time across the JVM, as many
+     * <code>SpringContext</code>s may share a file.
+     *
+     * @param file   the file to append to, it (and its parent directories) will be created if necessary
+     * @param header written before <code>lines</code> if the file is empty, or <code>null</code> for no header
+     * @param lines  the lines to append
+     * @throws IOException if the file can't be written
+     */
+    static synchronized void append(final File file, final String header, final CharSequence lines)
+            throws IOException {
+        final boolean writeHeader = header != null && file.length() == 0;
+        try (final Writer writer = newWriter(file, true)) {
+            if (writeHeader) {
+                writer.append(header);
+            }
+            writer.append(lines);
+        }
+    }
+
+    /**
+     * @param file   the file to write
+     * @param append whether to append to the file, rather than replace it
+     * @return a writer for <code>file</code>, having created its parent directories if necessary
+     * @throws IOException if the file can't be opened
+     */
+    static Writer newWriter(final File file, final boolean append) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("unable to create directory " + parent);
+        }
+        return new OutputStreamWriter(new FileOutputStream(file, append), UTF_8);
+    }
+}
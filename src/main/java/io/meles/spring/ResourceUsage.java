@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The resources used during one phase of a test execution.
+ * <p>
+ * Allocated bytes are measured for the thread running the test, plus the thread that refreshes the context when
+ * refreshes are watched (see <code>SpringContext.Builder.refreshTimeout()</code>). Allocation by other threads the
+ * context starts (e.g. executors) isn't counted. Garbage collection and class loading figures are JVM wide, so they
+ * include the activity of any other threads running at the same time.
+ */
+public final class ResourceUsage {
+
+    private final long elapsedNanos;
+    private final long allocatedBytes;
+    private final long gcCount;
+    private final long gcTimeMillis;
+    private final long loadedClasses;
+
+    ResourceUsage(final long elapsedNanos, final long allocatedBytes, final long gcCount, final long gcTimeMillis,
+                  final long loadedClasses) {
+        this.elapsedNanos = elapsedNanos;
+        this.allocatedBytes = allocatedBytes;
+        this.gcCount = gcCount;
+        this.gcTimeMillis = gcTimeMillis;
+        this.loadedClasses = loadedClasses;
+    }
+
+    /**
+     * @return the wall clock time taken by the phase, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return the bytes allocated by the test thread (and any thread refreshing its context) during the phase, or <code>-1</code> if the JVM doesn't support
+     * measuring thread allocation
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return the number of garbage collections during the phase
+     */
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    /**
+     * @return the approximate time spent in garbage collection during the phase, in milliseconds
+     */
+    public long getGcTimeMillis() {
+        return gcTimeMillis;
+    }
+
+    /**
+     * @return the number of classes loaded during the phase
+     */
+    public long getLoadedClasses() {
+        return loadedClasses;
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceUsage{" +
+                "elapsedNanos=" + elapsedNanos +
+                ", allocatedBytes=" + allocatedBytes +
+                ", gcCount=" + gcCount +
+                ", gcTimeMillis=" + gcTimeMillis +
+                ", loadedClasses=" + loadedClasses +
+                '}';
+    }
+
+    /**
+     * A point-in-time reading of the counters that make up a <code>ResourceUsage</code>.
+     */
+    static final class Snapshot {
+
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+        private static final ClassLoadingMXBean CLASS_LOADING = ManagementFactory.getClassLoadingMXBean();
+
+        // bytes allocated by other threads on behalf of each thread, e.g. a context refreshed while the thread waited
+        private static final ThreadLocal<long[]> ATTRIBUTED_BYTES = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[1];
+            }
+        };
+
+        private final long nanoTime;
+        private final long allocatedBytes;
+        private final long gcCount;
+        private final long gcTimeMillis;
+        private final long loadedClasses;
+
+        private Snapshot() {
+            long count = 0;
+            long time = 0;
+            for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, collector.getCollectionCount());
+                time += Math.max(0, collector.getCollectionTime());
+            }
+            this.gcCount = count;
+            this.gcTimeMillis = time;
+            this.loadedClasses = CLASS_LOADING.getTotalLoadedClassCount();
+            this.allocatedBytes = currentThreadAllocatedBytes();
+            this.nanoTime = System.nanoTime();
+        }
+
+        static Snapshot take() {
+            return new Snapshot();
+        }
+
+        ResourceUsage usageUntil(final Snapshot end) {
+            final long allocated = allocatedBytes < 0 || end.allocatedBytes < 0
+                    ? -1
+                    : end.allocatedBytes - allocatedBytes;
+            return new ResourceUsage(
+                    end.nanoTime - nanoTime,
+                    allocated,
+                    end.gcCount - gcCount,
+                    end.gcTimeMillis - gcTimeMillis,
+                    end.loadedClasses - loadedClasses);
+        }
+
+        /**
+         * Count <code>bytes</code> allocated by another thread as allocated by the current thread.
+         *
+         * @param bytes the bytes allocated, ignored if negative (i.e. they couldn't be measured)
+         */
+        static void attributeAllocatedBytes(final long bytes) {
+            if (bytes > 0) {
+                ATTRIBUTED_BYTES.get()[0] += bytes;
+            }
+        }
+
+        /**
+         * @param thread a live thread
+         * @return the bytes allocated by <code>thread</code> since it started, or <code>-1</code> if the JVM doesn't
+         * support measuring thread allocation
+         */
+        static long allocatedBytes(final Thread thread) {
+            if (THREADS instanceof com.sun.management.ThreadMXBean) {
+                final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+                if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                    return threads.getThreadAllocatedBytes(thread.getId());
+                }
+            }
+            return -1;
+        }
+
+        private static long currentThreadAllocatedBytes() {
+            final long allocatedBytes = allocatedBytes(Thread.currentThread());
+            return allocatedBytes < 0 ? allocatedBytes : allocatedBytes + ATTRIBUTED_BYTES.get()[0];
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.ObjectFactory;
+
+/**
+ * A large, read-only singleton (e.g. a lookup table) that's loaded on demand rather than held by the test.
+ * <p>
+ * A fixture is registered with {@link SpringContext.Builder#singleton(String, SharedFixture)}. It's loaded when the
+ * first bean that needs it is created, shared by every context that uses the same fixture, and released once the
+ * last of those contexts is closed, so only the (small) loader stays reachable between tests. Declare fixtures as
+ * static fields so that every test instance uses the same one:
+ * <pre>
+ * private static final SharedFixture&lt;ByteBuffer&gt; POSTCODES = SharedFixture.mappedFile(new File("postcodes.bin"));
+ *
+ * &#64;Rule
+ * public SpringContext springContext = SpringContext.builder()
+ *         .config(AddressConfig.class)
+ *         .singleton("postcodes", POSTCODES)
+ *         .build();
+ * </pre>
+ * The loaded object is shared by contexts, and possibly tests, that are running at the same time, so it mustn't be
+ * changed.
+ *
+ * @param <T> the type of the fixture
+ */
+public final class SharedFixture<T> {
+
+    private final Class<T> type;
+    private final ObjectFactory<? extends T> loader;
+    private T instance;
+    private int references;
+
+    /**
+     * @param type   the type of the fixture, beans can be autowired with it without loading it
+     * @param loader loads the fixture, each time it's needed after being released
+     */
+    public SharedFixture(final Class<T> type, final ObjectFactory<? extends T> loader) {
+        this.type = type;
+        this.loader = loader;
+    }
+
+    /**
+     * A fixture that maps <code>file</code> into memory, read-only. The mapped pages are managed by the operating
+     * system rather than the heap, and the mapping is released once the buffer has been released and garbage
+     * collected. As the buffer is shared, read it with its absolute <code>get</code> methods, or a
+     * {@link ByteBuffer#duplicate()}, rather than moving its position.
+     *
+     * @param file the file to map
+     * @return the fixture
+     */
+    public static SharedFixture<ByteBuffer> mappedFile(final File file) {
+        return new SharedFixture<>(ByteBuffer.class, new ObjectFactory<ByteBuffer>() {
+            @Override
+            public ByteBuffer getObject() {
+                try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+                     final FileChannel channel = randomAccessFile.getChannel()) {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                } catch (IOException e) {
+                    throw new IllegalStateException("unable to map " + file, e);
+                }
+            }
+        });
+    }
+
+    Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * @return whether the fixture is currently loaded
+     */
+    public synchronized boolean isLoaded() {
+        return instance != null;
+    }
+
+    synchronized T acquire() {
+        if (instance == null) {
+            instance = loader.getObject();
+        }
+        references++;
+        return instance;
+    }
+
+    synchronized void release() {
+        if (--references == 0) {
+            instance = null;
+        }
+    }
+
+    /**
+     * @return a new reference to this fixture, to register with a single context
+     */
+    ContextReference<T> newContextReference() {
+        return new ContextReference<>(this);
+    }
+
+    /**
+     * A context's reference to a fixture: a singleton <code>FactoryBean</code> that acquires the fixture when its
+     * object is first needed, and releases it when the context destroys it.
+     */
+    static final class ContextReference<T> implements FactoryBean<T>, DisposableBean {
+
+        private final SharedFixture<T> fixture;
+        private boolean acquired;
+
+        private ContextReference(final SharedFixture<T> fixture) {
+            this.fixture = fixture;
+        }
+
+        SharedFixture<T> getFixture() {
+            return fixture;
+        }
+
+        @Override
+        public synchronized T getObject() {
+            final T instance = fixture.acquire();
+            if (acquired) {
+                // spring caches the object of a singleton FactoryBean, but only count each context once
+                fixture.release();
+            }
+            acquired = true;
+            return instance;
+        }
+
+        @Override
+        public Class<?> getObjectType() {
+            return fixture.getType();
+        }
+
+        @Override
+        public boolean isSingleton() {
+            return true;
+        }
+
+        @Override
+        public synchronized void destroy() {
+            if (acquired) {
+                acquired = false;
+                fixture.release();
+            }
+        }
+    }
+}
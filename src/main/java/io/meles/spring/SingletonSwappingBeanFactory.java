@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.context.annotation.ConfigurationClassPostProcessor;
+import org.springframework.core.Conventions;
+
+/**
+ * A bean factory that can replace registered singletons after it has been refreshed, re-creating the beans that
+ * depend on them.
+ * <p>
+ * <code>@Configuration</code> class instances can't be re-created once the context has been refreshed (their CGLIB
+ * callbacks are only registered during refresh), so they are kept and autowired again instead, and every bean declared
+ * by one of their <code>@Bean</code> methods is re-created.
+ */
+class SingletonSwappingBeanFactory extends DefaultListableBeanFactory {
+
+    static final String CONFIGURATION_CLASS_ATTRIBUTE
+            = Conventions.getQualifiedAttributeName(ConfigurationClassPostProcessor.class, "configurationClass");
+    private static final String FULL_CONFIGURATION = "full";
+
+    private Set<String> retainedConfigurations;
+
+    /**
+     * Register each of <code>singletons</code> that isn't already registered (by identity).
+     *
+     * @param singletons the singletons, by name, that should be registered
+     */
+    void swapSingletons(final Map<String, Object> singletons) {
+        final List<String> changed = new ArrayList<>();
+        for (final Entry<String, Object> singleton : singletons.entrySet()) {
+            if (getSingleton(singleton.getKey(), false) != singleton.getValue()) {
+                changed.add(singleton.getKey());
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        final Set<String> retained = new LinkedHashSet<>();
+        retainedConfigurations = retained;
+        try {
+            for (final String name : changed) {
+                destroySingleton(name);
+            }
+            destroyBeansDeclaredBy(retained);
+        } finally {
+            retainedConfigurations = null;
+        }
+
+        for (final String name : changed) {
+            final Object singleton = singletons.get(name);
+            registerSingleton(name, singleton);
+            if (singleton instanceof SharedFixture.ContextReference) {
+                registerDisposableBean(name, (SharedFixture.ContextReference<?>) singleton);
+            }
+        }
+        for (final String name : retained) {
+            autowireBeanProperties(getSingleton(name), AutowireCapableBeanFactory.AUTOWIRE_NO, false);
+        }
+        preInstantiateSingletons();
+    }
+
+    /**
+     * Destroy the beans declared by the <code>@Bean</code> methods of <code>configurations</code>. This may retain
+     * further configurations, whose beans are destroyed in turn.
+     */
+    private void destroyBeansDeclaredBy(final Set<String> configurations) {
+        final Set<String> processed = new LinkedHashSet<>();
+        while (processed.size() < configurations.size()) {
+            for (final String configuration : new ArrayList<>(configurations)) {
+                if (processed.add(configuration)) {
+                    for (final String beanName : getBeanDefinitionNames()) {
+                        if (configuration.equals(getBeanDefinition(beanName).getFactoryBeanName())) {
+                            destroySingleton(beanName);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroySingleton(final String beanName) {
+        if (retainedConfigurations != null && isFullConfiguration(beanName)) {
+            retainedConfigurations.add(beanName);
+            return;
+        }
+        super.destroySingleton(beanName);
+    }
+
+    private boolean isFullConfiguration(final String beanName) {
+        return containsBeanDefinition(beanName)
+                && FULL_CONFIGURATION.equals(getBeanDefinition(beanName).getAttribute(CONFIGURATION_CLASS_ATTRIBUTE));
+    }
+}
@@ -21,15 +21,18 @@ package io.meles.spring;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.unmodifiableList;
-import static java.util.Collections.unmodifiableMap;
+import static org.junit.Assume.assumeNoException;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.rules.TestRule;
 import org.junit.runner.Description;
@@ -38,22 +41,31 @@ import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
-import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.context.ApplicationContext;
-import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.ClassUtils;
 
 public class SpringContext implements TestRule, BeanFactory {
 
-    private final Class<?>[] configClasses;
+    private final ContextFactory contextFactory;
     private final List<Object> autowireTargets;
-    private final Map<String, Object> beans;
+    private final List<ExecutionMetricsListener> metricsListeners;
+    private final ContextLifecycle lifecycle;
+    private final boolean swapSingletons;
+    private final RepeatedInvocations repeatedInvocations;
+    private final BeanUsageReport beanUsageReport;
 
     private ApplicationContext applicationContext;
+    private Set<String> usedBeans;
 
     private SpringContext(final Builder builder) {
-        this.configClasses = builder.configClasses.toArray(new Class[builder.configClasses.size()]);
+        this.contextFactory = builder.contextFactory(builder.swapSingletons);
         this.autowireTargets = unmodifiableList(new ArrayList<>(builder.autowireTargets));
-        this.beans = unmodifiableMap(new HashMap<>(builder.beans));
+        this.metricsListeners = unmodifiableList(new ArrayList<>(builder.metricsListeners));
+        this.lifecycle = new ContextLifecycle(contextFactory.getContextKey(), builder.lifecycleListeners);
+        this.swapSingletons = builder.swapSingletons;
+        this.repeatedInvocations = builder.repeatedInvocations;
+        this.beanUsageReport = builder.beanUsageReport;
     }
 
     @Override
@@ -61,42 +73,95 @@ public class SpringContext implements TestRule, BeanFactory {
         return new Statement() {
             @Override
             public void evaluate() throws Throwable {
-                final DefaultListableBeanFactory factory = createBeanFactoryWithSingletons();
-
-                try (final AnnotationConfigApplicationContext applicationContext
-                             = new AnnotationConfigApplicationContext(factory)) {
-
-                    registerConfig(applicationContext);
-                    SpringContext.this.applicationContext = applicationContext;
-                    performAutowiring();
-
-                    base.evaluate();
+                final ExecutionMeter meter = ExecutionMeter.start(description, metricsListeners);
+                try {
+                    lifecycle.fire(ContextLifecycleEvent.REQUESTED);
+                    try (final ContextLease lease = lifecycle.observe(leaseContext())) {
+                        applicationContext = lease.getApplicationContext();
+                        usedBeans = beanUsageReport != null ? new HashSet<String>() : null;
+                        lifecycle.fire(ContextLifecycleEvent.AUTOWIRE_STARTED);
+                        performAutowiring();
+                        lifecycle.fire(ContextLifecycleEvent.AUTOWIRE_FINISHED);
+                        meter.setupComplete();
+
+                        try {
+                            base.evaluate();
+                        } finally {
+                            meter.testComplete();
+                            recordBeanUsage(lease.getApplicationContext());
+                        }
+                    } finally {
+                        applicationContext = null;
+                        usedBeans = null;
+                    }
                 } finally {
-                    applicationContext = null;
+                    meter.executionComplete();
                 }
             }
         };
     }
 
-    private void performAutowiring() {
-        for (final Object autowireTarget : autowireTargets) {
-            autowire(autowireTarget);
+    private ContextLease leaseContext() throws Exception {
+        final Callable<ConfigurableApplicationContext> startContext = new Callable<ConfigurableApplicationContext>() {
+            @Override
+            public ConfigurableApplicationContext call() {
+                return startContext();
+            }
+        };
+        if (swapSingletons) {
+            final ContextLease lease = ContextCache.shared().lease(contextFactory.getContextKey(), startContext, lifecycle);
+            try {
+                final SingletonSwappingBeanFactory beanFactory
+                        = (SingletonSwappingBeanFactory) lease.getApplicationContext().getBeanFactory();
+                beanFactory.swapSingletons(contextFactory.getSingletons(lease.getApplicationContext()));
+            } catch (RuntimeException | Error e) {
+                lease.discard();
+                throw e;
+            }
+            return lease;
+        }
+        if (repeatedInvocations != null) {
+            return repeatedInvocations.lease(contextFactory.getInstanceKey(), startContext, lifecycle);
+        }
+        return ContextLease.owned(startContext());
+    }
+
+    private ConfigurableApplicationContext startContext() {
+        lifecycle.fire(ContextLifecycleEvent.REFRESH_STARTED);
+        try {
+            return contextFactory.start();
+        } catch (ContextFactory.PreviousFailureException e) {
+            if (e.isSkip()) {
+                assumeNoException(e.getMessage(), e.getCause());
+            }
+            throw e;
+        } finally {
+            lifecycle.fire(ContextLifecycleEvent.REFRESH_FINISHED);
         }
     }
 
-    private void registerConfig(AnnotationConfigApplicationContext applicationContext) {
-        if (configClasses.length > 0) {
-            applicationContext.register(Arrays.copyOf(configClasses, configClasses.length));
+    private void recordBeanUsage(final ConfigurableApplicationContext applicationContext) {
+        if (usedBeans != null) {
+            beanUsageReport.record(applicationContext.getBeanFactory(), usedBeans);
         }
-        applicationContext.refresh();
     }
 
-    private DefaultListableBeanFactory createBeanFactoryWithSingletons() {
-        final DefaultListableBeanFactory factory = new DefaultListableBeanFactory();
-        for (final Entry<String, Object> bean : beans.entrySet()) {
-            factory.registerSingleton(bean.getKey(), bean.getValue());
+    private void beanUsed(final String name) {
+        if (usedBeans != null) {
+            usedBeans.add(name);
+        }
+    }
+
+    private void beansUsed(final Class<?> type) {
+        if (usedBeans != null) {
+            usedBeans.addAll(asList(getApplicationContext().getBeanNamesForType(type)));
+        }
+    }
+
+    private void performAutowiring() {
+        for (final Object autowireTarget : autowireTargets) {
+            autowire(autowireTarget);
         }
-        return factory;
     }
 
     /**
@@ -114,21 +179,25 @@ public class SpringContext implements TestRule, BeanFactory {
 
     @Override
     public Object getBean(String name) throws BeansException {
+        beanUsed(name);
         return getApplicationContext().getBean(name);
     }
 
     @Override
     public <T> T getBean(String name, Class<T> requiredType) throws BeansException {
+        beanUsed(name);
         return getApplicationContext().getBean(name, requiredType);
     }
 
     @Override
     public <T> T getBean(Class<T> requiredType) throws BeansException {
+        beansUsed(requiredType);
         return getApplicationContext().getBean(requiredType);
     }
 
     @Override
     public Object getBean(String name, Object... args) throws BeansException {
+        beanUsed(name);
         return getApplicationContext().getBean(name, args);
     }
 
@@ -173,6 +242,8 @@ public class SpringContext implements TestRule, BeanFactory {
      */
     public void autowire(Object object) {
         getAutowireCapableBeanFactory().autowireBean(object);
+        // spring records the beans injected into an object as dependencies of its class name
+        beanUsed(ClassUtils.getUserClass(object).getName());
     }
 
     private AutowireCapableBeanFactory getAutowireCapableBeanFactory() {
@@ -185,9 +256,21 @@ public class SpringContext implements TestRule, BeanFactory {
 
     public static class Builder {
 
-        private final List<Class<?>> configClasses = new ArrayList<>();
+        final List<Class<?>> configClasses = new ArrayList<>();
         private final List<Object> autowireTargets = new ArrayList<>();
-        private final Map<String, Object> beans = new HashMap<>();
+        final Map<String, Object> beans = new HashMap<>();
+        final Map<String, SharedFixture<?>> fixtures = new HashMap<>();
+        final Map<Class<?>, Object> replacements = new LinkedHashMap<>();
+        final List<Class<?>> exclusions = new ArrayList<>();
+        private final List<ExecutionMetricsListener> metricsListeners = new ArrayList<>();
+        private final List<ContextLifecycleListener> lifecycleListeners = new ArrayList<>();
+        ClassLoader classLoader;
+        ContextFactory.FailurePolicy failurePolicy = ContextFactory.FailurePolicy.RETRY;
+        long refreshWarningNanos;
+        long refreshTimeoutNanos;
+        private boolean swapSingletons;
+        private RepeatedInvocations repeatedInvocations;
+        private BeanUsageReport beanUsageReport = BeanUsageReport.shared();
 
         /**
          * Add <code>configClasses</code> to this <code>Builder</code>'s list of config <code>Class</code>es.
@@ -232,12 +315,227 @@ public class SpringContext implements TestRule, BeanFactory {
         }
 
         public Builder singleton(final String name, final Object bean) {
+            this.fixtures.remove(name);
             this.beans.put(name, bean);
             return this;
         }
 
+        /**
+         * Register the object loaded by <code>fixture</code> as a singleton named <code>name</code>. Unlike
+         * {@link #singleton(String, Object)}, the object isn't held by the rule: it's loaded when the first bean that
+         * needs it is created, shared by every context using the same fixture, and released when the last of them
+         * is closed.
+         *
+         * @param name    the name of the singleton
+         * @param fixture the fixture to load
+         * @return this Builder
+         */
+        public Builder singleton(final String name, final SharedFixture<?> fixture) {
+            this.beans.remove(name);
+            this.fixtures.put(name, fixture);
+            return this;
+        }
+
+        /**
+         * Measure the allocation, garbage collection and class loading of each test execution, reporting the results
+         * to <code>listeners</code>. Measurements are split into context setup, test body and context teardown.
+         * Allocation is measured for the test thread, plus the refreshing thread when the context is refreshed on its
+         * own thread (see {@link #refreshTimeout(long, TimeUnit)}), but not other threads the context starts.
+         *
+         * @param listeners the listeners to receive the measurements
+         * @return this Builder
+         * @see ExecutionMetricsReport
+         */
+        public Builder measure(final ExecutionMetricsListener... listeners) {
+            this.metricsListeners.addAll(asList(listeners));
+            return this;
+        }
+
+        /**
+         * Report the lifecycle of each test's context (requesting it, finding it in the cache, refreshing, autowiring
+         * and closing it) to <code>listeners</code>. When no listeners are registered reporting costs nothing.
+         *
+         * @param listeners the listeners to receive the events
+         * @return this Builder
+         * @see JfrContextLifecycleListener
+         */
+        public Builder listen(final ContextLifecycleListener... listeners) {
+            this.lifecycleListeners.addAll(asList(listeners));
+            return this;
+        }
+
+        /**
+         * Replace every bean in the context that matches <code>type</code> with <code>stub</code>. Matching bean
+         * definitions are rewritten before the context is refreshed, so the beans they define (e.g. connection pools,
+         * http clients or schedulers a test doesn't need) are never created. Beans that depend on a replaced bean get
+         * the stub instead. A bean matching more than one replaced type gets the stub that was added first. Beans are
+         * matched by their definitions, without creating them, so a <code>FactoryBean</code> is only matched by the
+         * type of object it makes if its definition declares it.
+         *
+         * @param type the type of bean to replace
+         * @param stub the object to use instead
+         * @param <T>  the type of bean to replace
+         * @return this Builder
+         */
+        public <T> Builder replace(final Class<T> type, final T stub) {
+            this.replacements.put(type, stub);
+            return this;
+        }
+
+        /**
+         * Remove every bean that matches one of <code>types</code> from the context before it is refreshed, so they
+         * are never created. Nothing else in the context may depend on an excluded bean, use
+         * {@link #replace(Class, Object)} for beans that other beans need.
+         *
+         * @param types the types of bean to exclude
+         * @return this Builder
+         */
+        public Builder exclude(final Class<?>... types) {
+            this.exclusions.addAll(asList(types));
+            return this;
+        }
+
+        /**
+         * Use <code>classLoader</code> to load bean classes and define the classes generated for
+         * <code>@Configuration</code> classes. Every context built by the <code>SpringContext</code> uses the same
+         * loader, so generated classes are reused rather than redefined on each refresh. Defaults to the class loader
+         * of the first config class.
+         *
+         * @param classLoader the class loader for the spring contexts
+         * @return this Builder
+         */
+        public Builder classLoader(final ClassLoader classLoader) {
+            this.classLoader = classLoader;
+            return this;
+        }
+
+        /**
+         * Once a context with the same config classes and singletons has failed to start, fail subsequent tests
+         * immediately, with the original failure as the cause, rather than refreshing the context again.
+         * <p>
+         * Singletons and stubs are compared by instance, as a context that failed because of one test's mocks may
+         * start with another's. Tests that create their own mocks (e.g. in instance fields) refresh the context each
+         * time. Only the 32 most recently used failures are remembered.
+         *
+         * @return this Builder
+         */
+        public Builder failFast() {
+            this.failurePolicy = ContextFactory.FailurePolicy.FAIL;
+            return this;
+        }
+
+        /**
+         * Once a context with the same config classes and singletons has failed to start, skip subsequent tests
+         * rather than refreshing the context again. The test that first hit the failure still fails.
+         * <p>
+         * As with {@link #failFast()}, singletons and stubs are compared by instance, so tests that create their own
+         * mocks refresh the context each time.
+         *
+         * @return this Builder
+         */
+        public Builder skipAfterFailure() {
+            this.failurePolicy = ContextFactory.FailurePolicy.SKIP;
+            return this;
+        }
+
+        /**
+         * Log a warning, with the stack of the refreshing thread and the beans it's creating, when refreshing a context
+         * takes longer than <code>threshold</code>. The context is refreshed on its own thread, as with
+         * {@link #refreshTimeout(long, TimeUnit)}.
+         *
+         * @param threshold how long a refresh can take before the warning is logged
+         * @param unit      the unit of <code>threshold</code>
+         * @return this Builder
+         */
+        public Builder refreshWarning(final long threshold, final TimeUnit unit) {
+            this.refreshWarningNanos = unit.toNanos(threshold);
+            return this;
+        }
+
+        /**
+         * Fail the test when refreshing its context takes longer than <code>timeout</code>, rather than waiting for a
+         * bean that may never be created. The context is refreshed on its own thread, which is interrupted when the
+         * timeout passes. The failure's stack trace is that of the refreshing thread and its message names the beans
+         * that were being created. The bytes the refreshing thread allocates are still counted by
+         * {@link #measure(ExecutionMetricsListener...)} as context setup.
+         *
+         * @param timeout how long a refresh can take before the test fails
+         * @param unit    the unit of <code>timeout</code>
+         * @return this Builder
+         */
+        public Builder refreshTimeout(final long timeout, final TimeUnit unit) {
+            this.refreshTimeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Reuse a cached context built from the same config classes and singleton names, rather than starting a new
+         * context for every test. Singletons that differ from those registered with the cached context (e.g. new
+         * mocks) are swapped in, and the beans that depend on them are created again. Other beans are shared between
+         * tests, so tests mustn't leave them in a state that affects later tests.
+         * <p>
+         * Dependencies are found from spring's record of which beans were injected into which, plus the
+         * <code>@Configuration</code> class that declares each <code>@Bean</code> method. A bean that looks up a
+         * singleton some other way (e.g. from the <code>BeanFactory</code>) keeps the instance it found.
+         *
+         * @return this Builder
+         */
+        public Builder swapSingletons() {
+            this.swapSingletons = true;
+            return this;
+        }
+
+        /**
+         * Share a context between invocations of the test class that repeat the same configuration, e.g. the rows of
+         * a <code>Parameterized</code> test, rather than starting a new context for each. The test instance and other
+         * autowire targets are still autowired for every invocation. A context is only shared while the singletons
+         * are the same instances as the previous invocation's, it's closed when they change or when the class
+         * finishes. Has no effect with {@link #swapSingletons()}, which shares contexts already.
+         *
+         * @param invocations the <code>@ClassRule</code> of the test class that holds the shared contexts
+         * @return this Builder
+         */
+        public Builder reuseAcrossInvocations(final RepeatedInvocations invocations) {
+            this.repeatedInvocations = invocations;
+            return this;
+        }
+
+        /**
+         * Record the beans each test uses in <code>report</code>, rather than the report enabled by the
+         * <code>io.meles.spring.beanUsageReport</code> system property.
+         *
+         * @param report the report, or <code>null</code> to not record bean usage
+         * @return this Builder
+         */
+        Builder beanUsageReport(final BeanUsageReport report) {
+            this.beanUsageReport = report;
+            return this;
+        }
+
+        ContextFactory contextFactory(final boolean swappableSingletons) {
+            return new ContextFactory(this, swappableSingletons);
+        }
+
         public SpringContext build() {
             return new SpringContext(this);
         }
+
+        /**
+         * Build a JUnit Jupiter extension, rather than a JUnit 4 rule. {@link #measure(ExecutionMetricsListener...)},
+         * {@link #listen(ContextLifecycleListener...)}, {@link #swapSingletons()} and
+         * {@link #reuseAcrossInvocations(RepeatedInvocations)} only apply to the rule, as the extension shares each
+         * context between tests that may be running concurrently.
+         *
+         * @return the extension
+         * @throws IllegalStateException if the builder uses an option the extension doesn't support
+         */
+        public SpringContextExtension buildExtension() {
+            if (swapSingletons || repeatedInvocations != null
+                    || !metricsListeners.isEmpty() || !lifecycleListeners.isEmpty()) {
+                throw new IllegalStateException("measure(), listen(), swapSingletons() and reuseAcrossInvocations() "
+                        + "aren't supported by SpringContextExtension");
+            }
+            return new SpringContextExtension(contextFactory(false), autowireTargets);
+        }
     }
 }
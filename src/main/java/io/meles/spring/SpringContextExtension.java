@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static java.util.Collections.unmodifiableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolver;
+import org.opentest4j.TestAbortedException;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * A JUnit Jupiter extension for managing spring contexts, configured with the same {@link SpringContext.Builder} as
+ * the JUnit 4 rule.
+ * <p>
+ * <pre>
+ * &#64;RegisterExtension
+ * static SpringContextExtension spring = SpringContext.builder()
+ *         .config(SomeConfig.class)
+ *         .buildExtension();
+ * </pre>
+ * Contexts are kept in the root {@link ExtensionContext.Store}, so every test class with the same configuration (and
+ * the same singleton instances) shares one context, which is started once even when classes and methods run
+ * concurrently, and closed when the test run finishes. Each test instance is autowired before each test, and test
+ * method parameters of type {@link ApplicationContext} are resolved to the context.
+ * <p>
+ * As the context is shared, possibly by tests running at the same time, tests mustn't change the state of its beans.
+ */
+public class SpringContextExtension implements BeforeEachCallback, ParameterResolver {
+
+    private static final ExtensionContext.Namespace NAMESPACE
+            = ExtensionContext.Namespace.create(SpringContextExtension.class);
+
+    private final ContextFactory contextFactory;
+    private final List<Object> autowireTargets;
+    private final ContextInstanceKey storeKey;
+
+    SpringContextExtension(final ContextFactory contextFactory, final List<Object> autowireTargets) {
+        this.contextFactory = contextFactory;
+        this.autowireTargets = unmodifiableList(new ArrayList<>(autowireTargets));
+        this.storeKey = contextFactory.getInstanceKey();
+    }
+
+    @Override
+    public void beforeEach(final ExtensionContext extensionContext) {
+        final AutowireCapableBeanFactory beanFactory
+                = getApplicationContext(extensionContext).getAutowireCapableBeanFactory();
+        beanFactory.autowireBean(extensionContext.getRequiredTestInstance());
+        for (final Object autowireTarget : autowireTargets) {
+            beanFactory.autowireBean(autowireTarget);
+        }
+    }
+
+    @Override
+    public boolean supportsParameter(final ParameterContext parameterContext, final ExtensionContext extensionContext) {
+        // only claim ApplicationContext itself, not supertypes such as Object or BeanFactory that other resolvers handle
+        return parameterContext.getParameter().getType() == ApplicationContext.class;
+    }
+
+    @Override
+    public Object resolveParameter(final ParameterContext parameterContext, final ExtensionContext extensionContext) {
+        return getApplicationContext(extensionContext);
+    }
+
+    /**
+     * @param extensionContext the context of the current test
+     * @return the spring application context, starting it if no other test has
+     */
+    public ApplicationContext getApplicationContext(final ExtensionContext extensionContext) {
+        final ExtensionContext.Store store = extensionContext.getRoot().getStore(NAMESPACE);
+        return store.getOrComputeIfAbsent(storeKey, new Function<ContextInstanceKey, SharedContext>() {
+            @Override
+            public SharedContext apply(final ContextInstanceKey key) {
+                return new SharedContext(start());
+            }
+        }, SharedContext.class).applicationContext;
+    }
+
+    private ConfigurableApplicationContext start() {
+        try {
+            return contextFactory.start();
+        } catch (ContextFactory.PreviousFailureException e) {
+            if (e.isSkip()) {
+                throw new TestAbortedException(e.getMessage(), e.getCause());
+            }
+            throw e;
+        }
+    }
+
+    private static final class SharedContext implements ExtensionContext.Store.CloseableResource {
+
+        private final ConfigurableApplicationContext applicationContext;
+
+        SharedContext(final ConfigurableApplicationContext applicationContext) {
+            this.applicationContext = applicationContext;
+        }
+
+        @Override
+        public void close() {
+            applicationContext.close();
+        }
+    }
+}
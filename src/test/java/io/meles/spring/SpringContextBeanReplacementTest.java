@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+public class SpringContextBeanReplacementTest {
+
+    private static final AtomicInteger EXPENSIVE_BEANS_CREATED = new AtomicInteger();
+
+    @Configuration
+    public static class ExpensiveConfig {
+
+        @Bean
+        public FooRepository fooRepository() {
+            EXPENSIVE_BEANS_CREATED.incrementAndGet();
+            throw new IllegalStateException("no database in unit tests");
+        }
+
+        @Bean
+        public Foo foo() {
+            EXPENSIVE_BEANS_CREATED.incrementAndGet();
+            return new Foo();
+        }
+    }
+
+    public static class Dependency {
+
+        private boolean initialised;
+
+        @PostConstruct
+        public void initialise() {
+            initialised = true;
+        }
+    }
+
+    public static class FooFactoryBean implements FactoryBean<Foo> {
+
+        @Autowired
+        public FooFactoryBean(final Dependency dependency) {
+        }
+
+        @Override
+        public Foo getObject() {
+            return new Foo();
+        }
+
+        @Override
+        public Class<?> getObjectType() {
+            return Foo.class;
+        }
+
+        @Override
+        public boolean isSingleton() {
+            return true;
+        }
+    }
+
+    @Configuration
+    public static class DependencyConfig {
+
+        @Bean
+        public Dependency dependency() {
+            return new Dependency();
+        }
+    }
+
+    public interface Named {
+    }
+
+    public static class NamedFoo extends Foo implements Named {
+    }
+
+    @Configuration
+    public static class NamedFooConfig {
+
+        @Bean
+        public NamedFoo namedFoo() {
+            return new NamedFoo();
+        }
+    }
+
+    @Before
+    public void resetCount() {
+        EXPENSIVE_BEANS_CREATED.set(0);
+    }
+
+    @After
+    public void clearCache() {
+        ContextCache.shared().clear();
+    }
+
+    @Test
+    public void replacedBeansAreNeverCreated() throws Throwable {
+        final FooRepository stub = mock(FooRepository.class);
+        final Foo foo = new Foo();
+        when(stub.load("foo")).thenReturn(foo);
+        final SpringContext springContext = SpringContext.builder()
+                .config(ExpensiveConfig.class, BarConfig.class)
+                .replace(FooRepository.class, stub)
+                .build();
+
+        springContext.apply(new Statement() {
+            @Override
+            public void evaluate() {
+                assertThat(springContext.getBean(FooRepository.class), is(sameInstance(stub)));
+                assertThat(springContext.getBean(BarService.class).findMeAFoo("foo"), is(sameInstance(foo)));
+            }
+        }, Description.EMPTY).evaluate();
+
+        assertThat(EXPENSIVE_BEANS_CREATED.get(), is(1));
+    }
+
+    @Test
+    public void excludedBeansAreNeverCreated() throws Throwable {
+        final SpringContext springContext = SpringContext.builder()
+                .config(ExpensiveConfig.class)
+                .exclude(FooRepository.class, Foo.class)
+                .build();
+
+        springContext.apply(new Statement() {
+            @Override
+            public void evaluate() {
+                assertThat(springContext.containsBean("fooRepository"), is(false));
+                assertThat(springContext.containsBean("foo"), is(false));
+            }
+        }, Description.EMPTY).evaluate();
+
+        assertThat(EXPENSIVE_BEANS_CREATED.get(), is(0));
+    }
+
+    @Test
+    public void unrelatedBeansAreInitialisedAsUsual() throws Throwable {
+        final SpringContext springContext = SpringContext.builder()
+                // spring can only find the object type of a factory bean registered by class by creating it
+                .config(DependencyConfig.class, FooFactoryBean.class)
+                .exclude(BarService.class)
+                .build();
+
+        springContext.apply(new Statement() {
+            @Override
+            public void evaluate() {
+                assertThat(springContext.getBean(Dependency.class).initialised, is(true));
+            }
+        }, Description.EMPTY).evaluate();
+    }
+
+    @Test
+    public void beansMatchingTwoReplacedTypesGetTheFirstStub() throws Throwable {
+        final NamedFoo first = new NamedFoo();
+        final NamedFoo second = new NamedFoo();
+
+        assertNamedFooIs(SpringContext.builder()
+                .config(NamedFooConfig.class)
+                .replace(Named.class, first)
+                .replace(Foo.class, second)
+                .build(), first);
+        assertNamedFooIs(SpringContext.builder()
+                .config(NamedFooConfig.class)
+                .replace(Foo.class, first)
+                .replace(Named.class, second)
+                .build(), first);
+    }
+
+    @Test
+    public void replacedBeansAreSwappedWhenTheContextIsReused() throws Throwable {
+        final SpringContext.Builder builder = SpringContext.builder()
+                .config(ExpensiveConfig.class, BarConfig.class)
+                .swapSingletons();
+        final FooRepository firstStub = mock(FooRepository.class);
+        final FooRepository secondStub = mock(FooRepository.class);
+
+        assertBarServiceUses(builder.replace(FooRepository.class, firstStub).build(), firstStub);
+        assertBarServiceUses(builder.replace(FooRepository.class, secondStub).build(), secondStub);
+    }
+
+    private static void assertNamedFooIs(final SpringContext springContext, final NamedFoo stub) throws Throwable {
+        springContext.apply(new Statement() {
+            @Override
+            public void evaluate() {
+                assertThat(springContext.getBean("namedFoo"), is(sameInstance((Object) stub)));
+            }
+        }, Description.EMPTY).evaluate();
+    }
+
+    private static void assertBarServiceUses(final SpringContext springContext, final FooRepository stub)
+            throws Throwable {
+        final Foo foo = new Foo();
+        when(stub.load("foo")).thenReturn(foo);
+        springContext.apply(new Statement() {
+            @Override
+            public void evaluate() {
+                assertThat(springContext.getBean(BarService.class).findMeAFoo("foo"), is(sameInstance(foo)));
+            }
+        }, Description.EMPTY).evaluate();
+    }
+}
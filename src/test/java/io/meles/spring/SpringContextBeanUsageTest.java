@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+public class SpringContextBeanUsageTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Configuration
+    public static class UsageConfig {
+
+        @Bean
+        public FooRepository fooRepository() {
+            return mock(FooRepository.class);
+        }
+
+        @Bean
+        public BarService barService(final FooRepository fooRepository) {
+            return new BarService(fooRepository);
+        }
+
+        @Bean
+        public Foo unusedFoo() {
+            return new Foo();
+        }
+    }
+
+    public static class AutowiredTest {
+
+        @Autowired
+        private BarService barService;
+    }
+
+    @Test
+    public void beansNoTestUsedAreReportedByConfigClass() throws Exception {
+        final File reportFile = new File(temporaryFolder.getRoot(), "beans.txt");
+        final BeanUsageReport report = new BeanUsageReport(reportFile);
+
+        try (final AnnotationConfigApplicationContext applicationContext
+                     = new AnnotationConfigApplicationContext(UsageConfig.class)) {
+            applicationContext.getAutowireCapableBeanFactory().autowireBean(new AutowiredTest());
+            report.record(applicationContext.getBeanFactory(),
+                    Collections.singleton(AutowiredTest.class.getName()));
+        }
+        report.write();
+
+        assertThat(read(reportFile), is(UsageConfig.class.getName() + ": 1 of 4 beans never used\n\tunusedFoo\n"));
+    }
+
+    @Test
+    public void beansUsedByAnyTestAreUsed() throws Exception {
+        final File reportFile = new File(temporaryFolder.getRoot(), "beans.txt");
+        final BeanUsageReport report = new BeanUsageReport(reportFile);
+
+        for (final String usedBean : Arrays.asList("unusedFoo", "barService")) {
+            try (final AnnotationConfigApplicationContext applicationContext
+                         = new AnnotationConfigApplicationContext(UsageConfig.class)) {
+                report.record(applicationContext.getBeanFactory(), Collections.singleton(usedBean));
+            }
+        }
+        report.write();
+
+        assertThat(read(reportFile), is(UsageConfig.class.getName() + ": 0 of 4 beans never used\n"));
+    }
+
+    @Test
+    public void autowiredBeansAreRecordedByTheRule() throws Throwable {
+        final File reportFile = new File(temporaryFolder.getRoot(), "beans.txt");
+        final BeanUsageReport report = new BeanUsageReport(reportFile);
+        final SpringContext springContext = SpringContext.builder()
+                .config(UsageConfig.class)
+                .autowire(new AutowiredTest())
+                .beanUsageReport(report)
+                .build();
+
+        springContext.apply(mock(Statement.class), Description.EMPTY).evaluate();
+        report.write();
+
+        assertThat(read(reportFile), is(UsageConfig.class.getName() + ": 1 of 4 beans never used\n\tunusedFoo\n"));
+    }
+
+    @Test
+    public void beansFromGetBeanAreRecordedByTheRuleWhenTheTestFails() throws Throwable {
+        final File reportFile = new File(temporaryFolder.getRoot(), "beans.txt");
+        final BeanUsageReport report = new BeanUsageReport(reportFile);
+        final SpringContext springContext = SpringContext.builder()
+                .config(UsageConfig.class)
+                .beanUsageReport(report)
+                .build();
+
+        try {
+            springContext.apply(new Statement() {
+                @Override
+                public void evaluate() {
+                    springContext.getBean("unusedFoo");
+                    springContext.getBean(BarService.class);
+                    throw new AssertionError("test failed");
+                }
+            }, Description.EMPTY).evaluate();
+            fail("expected the test to fail");
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), is("test failed"));
+        }
+        report.write();
+
+        assertThat(read(reportFile), is(UsageConfig.class.getName() + ": 0 of 4 beans never used\n"));
+    }
+
+    @Test
+    public void unusedBeansAreReportedByTheRule() throws Throwable {
+        final File reportFile = new File(temporaryFolder.getRoot(), "beans.txt");
+        final BeanUsageReport report = new BeanUsageReport(reportFile);
+        final SpringContext springContext = SpringContext.builder()
+                .config(UsageConfig.class)
+                .beanUsageReport(report)
+                .build();
+
+        springContext.apply(new Statement() {
+            @Override
+            public void evaluate() {
+                springContext.getBean(Foo.class);
+            }
+        }, Description.EMPTY).evaluate();
+        report.write();
+
+        assertThat(read(reportFile), is(UsageConfig.class.getName()
+                + ": 2 of 4 beans never used\n\tbarService\n\tfooRepository\n"));
+    }
+
+    private static String read(final File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+    }
+}
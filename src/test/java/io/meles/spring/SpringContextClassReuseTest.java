@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+public class SpringContextClassReuseTest {
+
+    private ClassLoader originalContextClassLoader;
+
+    @Before
+    public void rememberContextClassLoader() {
+        originalContextClassLoader = Thread.currentThread().getContextClassLoader();
+    }
+
+    @After
+    public void restoreContextClassLoader() {
+        Thread.currentThread().setContextClassLoader(originalContextClassLoader);
+    }
+
+    @Test
+    public void enhancedConfigClassIsReusedAcrossRefreshes() throws Throwable {
+        final SpringContext springContext = SpringContext.builder()
+                .config(SimpleConfig.class)
+                .build();
+
+        final Class<?> first = enhancedConfigClass(springContext);
+        final Class<?> second = enhancedConfigClass(springContext);
+
+        assertThat(first, not(sameInstance((Object) SimpleConfig.class)));
+        assertSame(first, second);
+    }
+
+    @Test
+    public void enhancedConfigClassIsReusedWhateverTheContextClassLoader() throws Throwable {
+        final Class<?> first = enhancedConfigClass(SpringContext.builder().config(SimpleConfig.class).build());
+
+        Thread.currentThread().setContextClassLoader(new URLClassLoader(new URL[0], originalContextClassLoader));
+        final Class<?> second = enhancedConfigClass(SpringContext.builder().config(SimpleConfig.class).build());
+
+        assertSame(first, second);
+    }
+
+    @Test
+    public void classLoaderCanBeSpecified() throws Throwable {
+        final ClassLoader classLoader = new URLClassLoader(new URL[0], SimpleConfig.class.getClassLoader());
+        final SpringContext springContext = SpringContext.builder()
+                .config(SimpleConfig.class)
+                .classLoader(classLoader)
+                .build();
+
+        final ClassLoader[] holder = new ClassLoader[1];
+        springContext.apply(new Statement() {
+            @Override
+            public void evaluate() {
+                holder[0] = springContext.getApplicationContext().getClassLoader();
+            }
+        }, Description.EMPTY).evaluate();
+
+        assertSame(classLoader, holder[0]);
+    }
+
+    private static Class<?> enhancedConfigClass(final SpringContext springContext) throws Throwable {
+        final Class<?>[] holder = new Class<?>[1];
+        springContext.apply(new Statement() {
+            @Override
+            public void evaluate() {
+                holder[0] = springContext.getBean(SimpleConfig.class).getClass();
+            }
+        }, Description.EMPTY).evaluate();
+        return holder[0];
+    }
+
+}
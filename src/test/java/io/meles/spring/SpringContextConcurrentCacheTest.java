@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+public class SpringContextConcurrentCacheTest {
+
+    private static final int THREADS = 8;
+
+    private final ContextCache cache = new ContextCache(32);
+    private final AtomicInteger starts = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    // counted down once a request has found, or started, the context for its key
+    private final CountDownLatch joined = new CountDownLatch(THREADS);
+    private final ContextLifecycleListener joinListener = new ContextLifecycleListener() {
+        @Override
+        public void contextEvent(final ContextLifecycleEvent event, final ContextKey contextKey, final long nanoTime) {
+            if (event == ContextLifecycleEvent.CACHE_HIT || event == ContextLifecycleEvent.CACHE_MISS) {
+                joined.countDown();
+            }
+        }
+    };
+    private ExecutorService executor;
+
+    @Before
+    public void createExecutor() {
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void shutDown() {
+        release.countDown();
+        executor.shutdownNow();
+        cache.clear();
+    }
+
+    @Test
+    public void concurrentRequestsForOneKeyStartOneContext() throws Exception {
+        final List<Future<ApplicationContext>> leases = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            leases.add(executor.submit(leaseAndClose(SimpleConfig.class, blockingFactory(SimpleConfig.class))));
+        }
+        release.countDown();
+
+        final ApplicationContext first = leases.get(0).get(10, TimeUnit.SECONDS);
+        for (final Future<ApplicationContext> lease : leases) {
+            assertThat(lease.get(10, TimeUnit.SECONDS), is(sameInstance(first)));
+        }
+        assertThat(starts.get(), is(1));
+    }
+
+    @Test
+    public void requestsForOtherKeysDontWaitForAStartingContext() throws Exception {
+        final Future<ApplicationContext> blocked
+                = executor.submit(leaseAndClose(SimpleConfig.class, blockingFactory(SimpleConfig.class)));
+        while (starts.get() == 0) {
+            Thread.sleep(1);
+        }
+
+        final Future<ApplicationContext> other = executor.submit(leaseAndClose(ExtraConfig.class,
+                new Callable<ConfigurableApplicationContext>() {
+                    @Override
+                    public ConfigurableApplicationContext call() {
+                        return new AnnotationConfigApplicationContext(ExtraConfig.class);
+                    }
+                }));
+
+        other.get(10, TimeUnit.SECONDS);
+        assertThat(blocked.isDone(), is(false));
+        release.countDown();
+        blocked.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void requestsThatJoinAFailedStartGetItsFailure() throws Exception {
+        final Callable<ConfigurableApplicationContext> failing = new Callable<ConfigurableApplicationContext>() {
+            @Override
+            public ConfigurableApplicationContext call() throws Exception {
+                starts.incrementAndGet();
+                release.await();
+                throw new IllegalStateException("bad, bad, bad");
+            }
+        };
+        final List<Future<ApplicationContext>> leases = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            leases.add(executor.submit(leaseAndClose(ThrowingConfig.class, failing)));
+        }
+        assertThat(joined.await(10, TimeUnit.SECONDS), is(true));
+        release.countDown();
+
+        for (final Future<ApplicationContext> lease : leases) {
+            try {
+                lease.get(10, TimeUnit.SECONDS);
+                fail("expected the context to fail to start");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+            }
+        }
+        assertThat(starts.get(), is(1));
+    }
+
+    private Callable<ConfigurableApplicationContext> blockingFactory(final Class<?> config) {
+        return new Callable<ConfigurableApplicationContext>() {
+            @Override
+            public ConfigurableApplicationContext call() throws Exception {
+                starts.incrementAndGet();
+                release.await();
+                return new AnnotationConfigApplicationContext(config);
+            }
+        };
+    }
+
+    private Callable<ApplicationContext> leaseAndClose(final Class<?> config,
+                                                      final Callable<ConfigurableApplicationContext> factory) {
+        final ContextKey key = new ContextKey(Collections.<Class<?>>singletonList(config), Collections.<String>emptySet());
+        return new Callable<ApplicationContext>() {
+            @Override
+            public ApplicationContext call() throws Exception {
+                try (final ContextLease lease = cache.lease(key, factory,
+                        new ContextLifecycle(key, Collections.singletonList(joinListener)))) {
+                    return lease.getApplicationContext();
+                }
+            }
+        };
+    }
+}
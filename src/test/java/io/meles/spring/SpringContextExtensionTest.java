@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static io.meles.spring.RootCause.rootCause;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.internal.matchers.ThrowableMessageMatcher.hasMessage;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolver;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.testkit.engine.EngineExecutionResults;
+import org.junit.platform.testkit.engine.EngineTestKit;
+import org.junit.platform.testkit.engine.Event;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+public class SpringContextExtensionTest {
+
+    private static final AtomicInteger STARTED = new AtomicInteger();
+    private static final AtomicBoolean CLOSED = new AtomicBoolean();
+
+    @Configuration
+    public static class CountingConfig {
+
+        @Bean
+        public DisposableBean lifecycleRecorder() {
+            STARTED.incrementAndGet();
+            return new DisposableBean() {
+                @Override
+                public void destroy() {
+                    CLOSED.set(true);
+                }
+            };
+        }
+    }
+
+    public static class FirstFixture {
+
+        @RegisterExtension
+        static SpringContextExtension spring = SpringContext.builder()
+                .config(SimpleConfig.class, CountingConfig.class)
+                .buildExtension();
+
+        @Autowired
+        private String stringBean;
+
+        @org.junit.jupiter.api.Test
+        public void testInstanceIsAutowired() throws InterruptedException {
+            Thread.sleep(50);
+            org.junit.jupiter.api.Assertions.assertEquals("it's a string", stringBean);
+        }
+
+        @org.junit.jupiter.api.Test
+        public void applicationContextIsResolved(final ApplicationContext applicationContext)
+                throws InterruptedException {
+            Thread.sleep(50);
+            org.junit.jupiter.api.Assertions.assertEquals("it's a string", applicationContext.getBean("stringBean"));
+        }
+    }
+
+    public static class SecondFixture {
+
+        @RegisterExtension
+        static SpringContextExtension spring = SpringContext.builder()
+                .config(SimpleConfig.class, CountingConfig.class)
+                .buildExtension();
+
+        @Autowired
+        private String stringBean;
+
+        @org.junit.jupiter.api.Test
+        public void firstTest() throws InterruptedException {
+            Thread.sleep(50);
+            org.junit.jupiter.api.Assertions.assertEquals("it's a string", stringBean);
+        }
+
+        @org.junit.jupiter.api.Test
+        public void secondTest() throws InterruptedException {
+            Thread.sleep(50);
+            org.junit.jupiter.api.Assertions.assertEquals("it's a string", stringBean);
+        }
+    }
+
+    public static class ObjectResolver implements ParameterResolver {
+
+        @Override
+        public boolean supportsParameter(final ParameterContext parameterContext,
+                                         final ExtensionContext extensionContext) {
+            return parameterContext.getParameter().getType() == Object.class;
+        }
+
+        @Override
+        public Object resolveParameter(final ParameterContext parameterContext,
+                                       final ExtensionContext extensionContext) {
+            return "resolved elsewhere";
+        }
+    }
+
+    @ExtendWith(ObjectResolver.class)
+    public static class OtherResolverFixture {
+
+        @RegisterExtension
+        static SpringContextExtension spring = SpringContext.builder()
+                .config(SimpleConfig.class)
+                .buildExtension();
+
+        @org.junit.jupiter.api.Test
+        public void objectIsResolvedByTheOtherResolver(final Object parameter,
+                                                       final ApplicationContext applicationContext) {
+            org.junit.jupiter.api.Assertions.assertEquals("resolved elsewhere", parameter);
+            org.junit.jupiter.api.Assertions.assertEquals("it's a string", applicationContext.getBean("stringBean"));
+        }
+    }
+
+    public static class ThrowingFixture {
+
+        @RegisterExtension
+        static SpringContextExtension spring = SpringContext.builder()
+                .config(ThrowingConfig.class)
+                .buildExtension();
+
+        @org.junit.jupiter.api.Test
+        public void neverRuns() {
+            org.junit.jupiter.api.Assertions.fail("the context should have failed to start");
+        }
+    }
+
+    @Before
+    public void resetCounters() {
+        STARTED.set(0);
+        CLOSED.set(false);
+    }
+
+    @Test
+    public void contextIsSharedByConcurrentClassesAndMethods() {
+        final EngineExecutionResults results = EngineTestKit.engine("junit-jupiter")
+                .configurationParameter("junit.jupiter.execution.parallel.enabled", "true")
+                .configurationParameter("junit.jupiter.execution.parallel.mode.default", "concurrent")
+                .configurationParameter("junit.jupiter.execution.parallel.mode.classes.default", "concurrent")
+                .selectors(selectClass(FirstFixture.class), selectClass(SecondFixture.class))
+                .execute();
+
+        assertThat(results.testEvents().succeeded().count(), is(4L));
+        assertThat(STARTED.get(), is(1));
+        assertTrue(CLOSED.get());
+    }
+
+    @Test
+    public void failureToStartFailsTheTest() {
+        final EngineExecutionResults results = EngineTestKit.engine("junit-jupiter")
+                .selectors(selectClass(ThrowingFixture.class))
+                .execute();
+
+        assertThat(results.testEvents().failed().count(), is(1L));
+        final Event failed = results.testEvents().failed().list().get(0);
+        final Throwable failure = failed.getPayload(TestExecutionResult.class).get().getThrowable().get();
+        assertThat(failure, rootCause(hasMessage(equalTo("bad, bad, bad"))));
+    }
+
+    @Test
+    public void onlyApplicationContextParametersAreResolved() {
+        final EngineExecutionResults results = EngineTestKit.engine("junit-jupiter")
+                .selectors(selectClass(OtherResolverFixture.class))
+                .execute();
+
+        assertThat(results.testEvents().succeeded().count(), is(1L));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void swapSingletonsIsNotSupported() {
+        SpringContext.builder()
+                .config(SimpleConfig.class)
+                .swapSingletons()
+                .buildExtension();
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static io.meles.spring.RootCause.rootCause;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.junit.internal.matchers.ThrowableMessageMatcher.hasMessage;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.internal.AssumptionViolatedException;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+public class SpringContextFailureTest {
+
+    private static final AtomicInteger REFRESH_ATTEMPTS = new AtomicInteger();
+
+    @Configuration
+    public static class CountingThrowingConfig {
+
+        @Bean
+        public Object bad() {
+            REFRESH_ATTEMPTS.incrementAndGet();
+            throw new RuntimeException("bad, bad, bad");
+        }
+    }
+
+    @Before
+    public void forgetFailures() {
+        ContextFailures.clear();
+        REFRESH_ATTEMPTS.set(0);
+    }
+
+    @Test
+    public void failuresAreRetriedByDefault() throws Throwable {
+        final SpringContext.Builder builder = SpringContext.builder().config(CountingThrowingConfig.class);
+
+        evaluateExpectingFailure(builder.build());
+        evaluateExpectingFailure(builder.build());
+
+        assertThat(REFRESH_ATTEMPTS.get(), is(2));
+    }
+
+    @Test
+    public void failFastReportsOriginalFailureWithoutRefreshing() throws Throwable {
+        final SpringContext.Builder builder = SpringContext.builder().config(CountingThrowingConfig.class).failFast();
+
+        evaluateExpectingFailure(builder.build());
+        final Throwable second = evaluateExpectingFailure(builder.build());
+
+        assertThat(REFRESH_ATTEMPTS.get(), is(1));
+        assertThat(second, instanceOf(IllegalStateException.class));
+        assertThat(second, rootCause(hasMessage(equalTo("bad, bad, bad"))));
+    }
+
+    @Test
+    public void failFastIsPerConfiguration() throws Throwable {
+        evaluateExpectingFailure(SpringContext.builder().config(CountingThrowingConfig.class).failFast().build());
+        evaluateExpectingFailure(SpringContext.builder()
+                .config(CountingThrowingConfig.class)
+                .singleton("foo", new Foo())
+                .failFast()
+                .build());
+
+        assertThat(REFRESH_ATTEMPTS.get(), is(2));
+    }
+
+    @Test
+    public void failFastIsPerSingletonInstance() throws Throwable {
+        final Foo foo = new Foo();
+        evaluateExpectingFailure(SpringContext.builder()
+                .config(CountingThrowingConfig.class)
+                .singleton("foo", foo)
+                .failFast()
+                .build());
+        evaluateExpectingFailure(SpringContext.builder()
+                .config(CountingThrowingConfig.class)
+                .singleton("foo", new Foo())
+                .failFast()
+                .build());
+        evaluateExpectingFailure(SpringContext.builder()
+                .config(CountingThrowingConfig.class)
+                .singleton("foo", foo)
+                .failFast()
+                .build());
+
+        assertThat(REFRESH_ATTEMPTS.get(), is(2));
+    }
+
+    @Test
+    public void onlyRecentFailuresAreRemembered() throws Throwable {
+        final Foo foo = new Foo();
+        evaluateExpectingFailure(SpringContext.builder()
+                .config(CountingThrowingConfig.class)
+                .singleton("foo", foo)
+                .failFast()
+                .build());
+        for (int i = 0; i < ContextFailures.MAX_SIZE; i++) {
+            evaluateExpectingFailure(SpringContext.builder()
+                    .config(CountingThrowingConfig.class)
+                    .singleton("foo", new Foo())
+                    .failFast()
+                    .build());
+        }
+        evaluateExpectingFailure(SpringContext.builder()
+                .config(CountingThrowingConfig.class)
+                .singleton("foo", foo)
+                .failFast()
+                .build());
+
+        assertThat(REFRESH_ATTEMPTS.get(), is(ContextFailures.MAX_SIZE + 2));
+    }
+
+    @Test
+    public void skipAfterFailureSkipsLaterTests() throws Throwable {
+        final SpringContext.Builder builder = SpringContext.builder()
+                .config(CountingThrowingConfig.class)
+                .skipAfterFailure();
+
+        final Throwable first = evaluateExpectingFailure(builder.build());
+        final Throwable second = evaluateExpectingFailure(builder.build());
+
+        assertThat(first, rootCause(hasMessage(equalTo("bad, bad, bad"))));
+        assertThat(second, instanceOf(AssumptionViolatedException.class));
+        assertThat(REFRESH_ATTEMPTS.get(), is(1));
+    }
+
+    private static Throwable evaluateExpectingFailure(final SpringContext springContext) throws Throwable {
+        final Statement statement = mock(Statement.class);
+        try {
+            springContext.apply(statement, Description.EMPTY).evaluate();
+        } catch (Throwable t) {
+            verify(statement, never()).evaluate();
+            return t;
+        }
+        fail("expected the context to fail to start");
+        return null;
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static io.meles.spring.ContextLifecycleEvent.AUTOWIRE_FINISHED;
+import static io.meles.spring.ContextLifecycleEvent.AUTOWIRE_STARTED;
+import static io.meles.spring.ContextLifecycleEvent.CACHE_HIT;
+import static io.meles.spring.ContextLifecycleEvent.CACHE_MISS;
+import static io.meles.spring.ContextLifecycleEvent.CLOSE_FINISHED;
+import static io.meles.spring.ContextLifecycleEvent.CLOSE_STARTED;
+import static io.meles.spring.ContextLifecycleEvent.REFRESH_FINISHED;
+import static io.meles.spring.ContextLifecycleEvent.REFRESH_STARTED;
+import static io.meles.spring.ContextLifecycleEvent.REQUESTED;
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+public class SpringContextLifecycleListenerTest {
+
+    private static final class RecordingListener implements ContextLifecycleListener {
+
+        private final List<ContextLifecycleEvent> events = new ArrayList<>();
+        private final List<ContextKey> contextKeys = new ArrayList<>();
+        private final List<Long> nanoTimes = new ArrayList<>();
+
+        @Override
+        public void contextEvent(final ContextLifecycleEvent event, final ContextKey contextKey, final long nanoTime) {
+            events.add(event);
+            contextKeys.add(contextKey);
+            nanoTimes.add(nanoTime);
+        }
+    }
+
+    @After
+    public void clearCache() {
+        ContextCache.shared().clear();
+    }
+
+    @Test
+    public void eventsAreFiredInLifecycleOrder() throws Throwable {
+        final RecordingListener listener = new RecordingListener();
+        final SpringContext springContext = SpringContext.builder()
+                .config(SimpleConfig.class)
+                .listen(listener)
+                .build();
+
+        springContext.apply(mock(Statement.class), Description.EMPTY).evaluate();
+
+        assertThat(listener.events, is(asList(REQUESTED, REFRESH_STARTED, REFRESH_FINISHED,
+                AUTOWIRE_STARTED, AUTOWIRE_FINISHED, CLOSE_STARTED, CLOSE_FINISHED)));
+        for (int i = 1; i < listener.nanoTimes.size(); i++) {
+            assertThat(listener.nanoTimes.get(i), is(greaterThanOrEqualTo(listener.nanoTimes.get(i - 1))));
+        }
+        final ContextKey expectedKey
+                = new ContextKey(Collections.<Class<?>>singletonList(SimpleConfig.class), Collections.<String>emptySet());
+        assertThat(new HashSet<>(listener.contextKeys), is(Collections.singleton(expectedKey)));
+    }
+
+    @Test
+    public void cacheLookupsAreReported() throws Throwable {
+        final RecordingListener listener = new RecordingListener();
+        final SpringContext.Builder builder = SpringContext.builder()
+                .config(SimpleConfig.class)
+                .swapSingletons()
+                .listen(listener);
+
+        builder.build().apply(mock(Statement.class), Description.EMPTY).evaluate();
+        builder.build().apply(mock(Statement.class), Description.EMPTY).evaluate();
+
+        assertThat(listener.events, is(asList(
+                REQUESTED, CACHE_MISS, REFRESH_STARTED, REFRESH_FINISHED,
+                AUTOWIRE_STARTED, AUTOWIRE_FINISHED, CLOSE_STARTED, CLOSE_FINISHED,
+                REQUESTED, CACHE_HIT, AUTOWIRE_STARTED, AUTOWIRE_FINISHED, CLOSE_STARTED, CLOSE_FINISHED)));
+    }
+
+    @Test
+    public void flightRecorderEventsAreRecorded() throws Throwable {
+        final File recordingFile = File.createTempFile("spring-rule", ".jfr");
+        try (final Recording recording = new Recording()) {
+            recording.enable(JfrContextLifecycleListener.PhaseEvent.class);
+            recording.enable(JfrContextLifecycleListener.LookupEvent.class);
+            recording.start();
+            SpringContext.builder()
+                    .config(SimpleConfig.class)
+                    .listen(new JfrContextLifecycleListener())
+                    .build()
+                    .apply(mock(Statement.class), Description.EMPTY)
+                    .evaluate();
+            recording.stop();
+            recording.dump(recordingFile.toPath());
+        }
+
+        final List<String> recorded = new ArrayList<>();
+        for (final RecordedEvent event : RecordingFile.readAllEvents(recordingFile.toPath())) {
+            if (event.getEventType().getName().equals("io.meles.spring.ContextPhase")) {
+                recorded.add(event.getString("phase"));
+            } else if (event.getEventType().getName().equals("io.meles.spring.ContextLookup")) {
+                recorded.add(event.getString("event"));
+            }
+        }
+        recordingFile.delete();
+        assertThat(recorded, hasItems("REQUESTED", "refresh", "autowire", "close"));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+public class SpringContextMetricsTest {
+
+    @Configuration
+    public static class AllocatingConfig {
+
+        static final int SIZE = 16 * 1024 * 1024;
+
+        @Bean
+        public byte[] largeBean() {
+            return new byte[SIZE];
+        }
+    }
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<ExecutionMetrics> measured = new ArrayList<>();
+
+    private final ExecutionMetricsListener recordingListener = new ExecutionMetricsListener() {
+        @Override
+        public void executionMeasured(final ExecutionMetrics metrics) {
+            measured.add(metrics);
+        }
+    };
+
+    @Test
+    public void eachExecutionIsMeasured() throws Throwable {
+        final Description description = Description.createTestDescription(SpringContextMetricsTest.class, "measured");
+        final SpringContext springContext = SpringContext.builder()
+                .config(SimpleConfig.class)
+                .measure(recordingListener)
+                .build();
+
+        springContext.apply(mock(Statement.class), description).evaluate();
+
+        assertThat(measured, hasSize(1));
+        final ExecutionMetrics metrics = measured.get(0);
+        assertThat(metrics.getDescription(), is(description));
+        assertThat(metrics.getContextSetup().getElapsedNanos(), greaterThan(0L));
+        assertThat(metrics.getContextSetup().getAllocatedBytes(), greaterThan(0L));
+        assertThat(metrics.getTestBody().getElapsedNanos(), greaterThanOrEqualTo(0L));
+        assertThat(metrics.getContextTeardown().getElapsedNanos(), greaterThanOrEqualTo(0L));
+    }
+
+    @Test
+    public void allocationByTheRefreshingThreadIsMeasured() throws Throwable {
+        final SpringContext springContext = SpringContext.builder()
+                .config(AllocatingConfig.class)
+                .refreshTimeout(1, MINUTES)
+                .measure(recordingListener)
+                .build();
+
+        springContext.apply(mock(Statement.class), Description.EMPTY).evaluate();
+
+        assertThat(measured, hasSize(1));
+        assertThat(measured.get(0).getContextSetup().getAllocatedBytes(),
+                greaterThanOrEqualTo((long) AllocatingConfig.SIZE));
+    }
+
+    @Test
+    public void failedExecutionIsMeasured() throws Throwable {
+        final Statement statement = mock(Statement.class);
+        final SpringContext springContext = SpringContext.builder()
+                .config(ThrowingConfig.class)
+                .measure(recordingListener)
+                .build();
+
+        try {
+            springContext.apply(statement, Description.EMPTY).evaluate();
+        } catch (Throwable ignored) {
+        } finally {
+            verify(statement, never()).evaluate();
+        }
+
+        assertThat(measured, hasSize(1));
+        assertThat(measured.get(0).getContextSetup().getElapsedNanos(), greaterThan(0L));
+    }
+
+    @Test
+    public void reportHasOneLinePerExecution() throws Throwable {
+        final File reportFile = new File(temporaryFolder.getRoot(), "reports/metrics.tsv");
+        final SpringContext springContext = SpringContext.builder()
+                .config(SimpleConfig.class)
+                .measure(new ExecutionMetricsReport(reportFile))
+                .build();
+
+        springContext.apply(mock(Statement.class), Description.createTestDescription(Foo.class, "first")).evaluate();
+        springContext.apply(mock(Statement.class), Description.createTestDescription(Foo.class, "second")).evaluate();
+
+        final List<String> lines = Files.readAllLines(reportFile.toPath(), Charset.forName("UTF-8"));
+        assertThat(lines, hasSize(3));
+        assertThat(lines.get(0), startsWith("test\tsetup.elapsedNanos\tsetup.allocatedBytes\t"));
+        assertThat(lines.get(1), startsWith("first(io.meles.spring.Foo)\t"));
+        assertThat(lines.get(2), startsWith("second(io.meles.spring.Foo)\t"));
+        assertThat(lines.get(1).split("\t").length, is(16));
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpringContextRefreshBaselineTest {
+
+    private static final ContextKey SIMPLE
+            = new ContextKey(Collections.<Class<?>>singletonList(SimpleConfig.class), Collections.<String>emptySet());
+    private static final ContextKey EXTRA
+            = new ContextKey(Collections.<Class<?>>singletonList(ExtraConfig.class), Collections.<String>emptySet());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final RefreshTimeBaseline refreshTimeBaseline = new RefreshTimeBaseline(50, 10, 1);
+    private File recorded;
+    private File baseline;
+
+    @Before
+    public void createFiles() {
+        recorded = new File(temporaryFolder.getRoot(), "refresh-times.txt");
+        baseline = new File(temporaryFolder.getRoot(), "baseline.txt");
+    }
+
+    @Test
+    public void baselineIsTheMedianRefreshTimeAndLargestBeanCount() throws Exception {
+        final RefreshTimeLog log = new RefreshTimeLog(recorded);
+        log.record(SIMPLE, millis(100), 10);
+        log.record(SIMPLE, millis(500), 11);
+        log.record(SIMPLE, millis(120), 10);
+
+        refreshTimeBaseline.update(recorded, baseline);
+
+        assertThat(new String(Files.readAllBytes(baseline.toPath()), Charset.forName("UTF-8")),
+                is("context\trefreshMillis\tbeanCount\n" + SIMPLE + "\t120\t11\n"));
+    }
+
+    @Test
+    public void refreshTimesWithinTolerancePass() throws Exception {
+        writeBaseline();
+        final RefreshTimeLog log = new RefreshTimeLog(recorded);
+        log.record(SIMPLE, millis(160), 11);
+        log.record(EXTRA, millis(5000), 100);
+
+        assertThat(refreshTimeBaseline.check(recorded, baseline), is(empty()));
+    }
+
+    @Test
+    public void slowerRefreshesAndExtraBeansFail() throws Exception {
+        writeBaseline();
+        new RefreshTimeLog(recorded).record(SIMPLE, millis(161), 12);
+
+        assertThat(refreshTimeBaseline.check(recorded, baseline), contains(
+                SIMPLE + " took 161ms to refresh, baseline 100ms, limit 160ms",
+                SIMPLE + " has 12 beans, baseline 10, limit 11"));
+    }
+
+    @Test
+    public void mainThrowsRegressionsRatherThanExiting() throws Exception {
+        writeBaseline();
+        new RefreshTimeLog(recorded).record(SIMPLE, millis(1000), 10);
+
+        try {
+            RefreshTimeBaseline.main(new String[]{recorded.getPath(), baseline.getPath()});
+            fail("expected the check to fail");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), containsString(SIMPLE + " took 1000ms to refresh, baseline 100ms"));
+        }
+    }
+
+    @Test
+    public void mainPassesAgainstABaselineItWrote() throws Exception {
+        new RefreshTimeLog(recorded).record(SIMPLE, millis(100), 10);
+
+        RefreshTimeBaseline.main(new String[]{recorded.getPath(), baseline.getPath(), "--update"});
+        RefreshTimeBaseline.main(new String[]{recorded.getPath(), baseline.getPath()});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mainRejectsUnknownArguments() throws Exception {
+        RefreshTimeBaseline.main(new String[]{recorded.getPath(), baseline.getPath(), "--force"});
+    }
+
+    private void writeBaseline() throws Exception {
+        final File baselineRecording = temporaryFolder.newFile();
+        new RefreshTimeLog(baselineRecording).record(SIMPLE, millis(100), 10);
+        refreshTimeBaseline.update(baselineRecording, baseline);
+    }
+
+    private static long millis(final long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
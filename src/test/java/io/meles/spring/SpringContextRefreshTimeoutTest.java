@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+public class SpringContextRefreshTimeoutTest {
+
+    private static volatile CountDownLatch interrupted;
+    private static volatile CountDownLatch creating;
+    private static volatile CountDownLatch released;
+    private static volatile CountDownLatch warned;
+
+    @Configuration
+    public static class HangingConfig {
+
+        @Bean
+        public Foo hangingFoo() {
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return new Foo();
+        }
+    }
+
+    @Configuration
+    public static class InterruptIgnoringConfig {
+
+        @Bean
+        public Foo stubbornFoo() {
+            creating.countDown();
+            boolean wasReleased = false;
+            while (!wasReleased) {
+                try {
+                    released.await();
+                    wasReleased = true;
+                } catch (InterruptedException ignored) {
+                }
+            }
+            return new Foo();
+        }
+    }
+
+    @Configuration
+    public static class SlowConfig {
+
+        // blocks until the warning has been logged, so that the warning sees the bean being created
+        @Bean
+        public Foo slowFoo() throws InterruptedException {
+            warned.await(10, SECONDS);
+            return new Foo();
+        }
+    }
+
+    @Before
+    public void resetLatch() {
+        interrupted = new CountDownLatch(1);
+        creating = new CountDownLatch(1);
+        released = new CountDownLatch(1);
+        warned = new CountDownLatch(1);
+    }
+
+    @Test
+    public void refreshFailsAtTheDeadline() throws Throwable {
+        final Statement statement = mock(Statement.class);
+        final SpringContext springContext = SpringContext.builder()
+                .config(HangingConfig.class)
+                .refreshTimeout(200, MILLISECONDS)
+                .build();
+
+        try {
+            springContext.apply(statement, Description.EMPTY).evaluate();
+            fail("expected the refresh to time out");
+        } catch (RefreshWatchdog.RefreshTimeoutException e) {
+            assertThat(e.getMessage(), containsString("[hangingFoo]"));
+            assertThat(e.getStackTrace()[e.getStackTrace().length - 1].getClassName(), is(Thread.class.getName()));
+        }
+        assertThat("refreshing thread was interrupted", interrupted.await(5, SECONDS), is(true));
+    }
+
+    @Test
+    public void interruptedTestDoesNotWaitForTheRefresh() throws Throwable {
+        final SpringContext springContext = SpringContext.builder()
+                .config(InterruptIgnoringConfig.class)
+                .refreshTimeout(1, MINUTES)
+                .build();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread testThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    springContext.apply(mock(Statement.class), Description.EMPTY).evaluate();
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        };
+
+        try {
+            testThread.start();
+            assertThat(creating.await(5, SECONDS), is(true));
+            testThread.interrupt();
+            testThread.join(SECONDS.toMillis(5));
+
+            assertThat("test thread finished", testThread.isAlive(), is(false));
+            assertThat(failure.get(), instanceOf(RefreshWatchdog.RefreshInterruptedException.class));
+        } finally {
+            released.countDown();
+        }
+    }
+
+    @Test
+    public void slowRefreshOnlyWarns() throws Throwable {
+        final Statement statement = mock(Statement.class);
+        final SpringContext springContext = SpringContext.builder()
+                .config(SlowConfig.class)
+                .refreshWarning(1, SECONDS)
+                .refreshTimeout(1, MINUTES)
+                .build();
+        final List<LogRecord> warnings = new CopyOnWriteArrayList<>();
+        final Handler handler = new Handler() {
+            @Override
+            public void publish(final LogRecord record) {
+                warnings.add(record);
+                warned.countDown();
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        final Logger logger = Logger.getLogger(RefreshWatchdog.class.getName());
+
+        logger.addHandler(handler);
+        try {
+            springContext.apply(statement, Description.EMPTY).evaluate();
+        } finally {
+            logger.removeHandler(handler);
+        }
+
+        verify(statement).evaluate();
+        assertThat(warnings, hasSize(1));
+        assertThat(warnings.get(0).getLevel(), is(Level.WARNING));
+        assertThat(warnings.get(0).getMessage(), containsString("creating beans [slowFoo]"));
+        assertThat(warnings.get(0).getMessage(), containsString("refreshing thread:\n\tat "));
+        assertThat(warnings.get(0).getMessage(), containsString(SlowConfig.class.getName() + ".slowFoo("));
+    }
+
+    @Test
+    public void failuresAreRethrownFromTheRefreshingThread() throws Throwable {
+        final SpringContext springContext = SpringContext.builder()
+                .config(ThrowingConfig.class)
+                .refreshTimeout(5, SECONDS)
+                .build();
+
+        try {
+            springContext.apply(mock(Statement.class), Description.EMPTY).evaluate();
+            fail("expected the refresh to fail");
+        } catch (RuntimeException e) {
+            assertThat(e, instanceOf(BeanCreationException.class));
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.model.Statement;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+public class SpringContextRepeatedInvocationTest {
+
+    private static final AtomicInteger STARTED = new AtomicInteger();
+    private static final Set<ApplicationContext> CONTEXTS
+            = Collections.newSetFromMap(new IdentityHashMap<ApplicationContext, Boolean>());
+
+    @Configuration
+    public static class CountingConfig {
+
+        @Bean
+        public Foo foo() {
+            STARTED.incrementAndGet();
+            return new Foo();
+        }
+    }
+
+    @RunWith(Parameterized.class)
+    public static class ParameterizedFixture {
+
+        @ClassRule
+        public static RepeatedInvocations invocations = new RepeatedInvocations();
+
+        @Rule
+        public SpringContext springContext = SpringContext.builder()
+                .config(CountingConfig.class)
+                .reuseAcrossInvocations(invocations)
+                .autowire(this)
+                .build();
+
+        @Autowired
+        private Foo foo;
+
+        public ParameterizedFixture(final int row) {
+        }
+
+        @Parameterized.Parameters
+        public static Collection<Object[]> rows() {
+            return asList(new Object[]{1}, new Object[]{2}, new Object[]{3}, new Object[]{4});
+        }
+
+        @Test
+        public void eachRowIsAutowired() {
+            assertThat(foo, is(notNullValue()));
+            CONTEXTS.add(springContext.getApplicationContext());
+        }
+
+        @Test
+        public void otherMethodsShareTheContext() {
+            CONTEXTS.add(springContext.getApplicationContext());
+        }
+    }
+
+    @RunWith(Parameterized.class)
+    public static class ParameterizedWithSingletonsFixture {
+
+        @ClassRule
+        public static RepeatedInvocations invocations = new RepeatedInvocations();
+
+        @Rule
+        public SpringContext springContext = SpringContext.builder()
+                .config(CountingConfig.class)
+                .singleton("bar", new Object())
+                .reuseAcrossInvocations(invocations)
+                .build();
+
+        public ParameterizedWithSingletonsFixture(final int row) {
+        }
+
+        @Parameterized.Parameters
+        public static Collection<Object[]> rows() {
+            return ParameterizedFixture.rows();
+        }
+
+        @Test
+        public void eachRowHasAContext() {
+            CONTEXTS.add(springContext.getApplicationContext());
+        }
+    }
+
+    @RunWith(Parameterized.class)
+    public static class ParameterizedWithoutReuseFixture {
+
+        @Rule
+        public SpringContext springContext = SpringContext.builder()
+                .config(CountingConfig.class)
+                .build();
+
+        public ParameterizedWithoutReuseFixture(final int row) {
+        }
+
+        @Parameterized.Parameters
+        public static Collection<Object[]> rows() {
+            return ParameterizedFixture.rows();
+        }
+
+        @Test
+        public void eachRowHasAContext() {
+            CONTEXTS.add(springContext.getApplicationContext());
+        }
+    }
+
+    @Before
+    public void reset() {
+        STARTED.set(0);
+        CONTEXTS.clear();
+    }
+
+    @Test
+    public void invocationsShareOneContext() {
+        final Result result = JUnitCore.runClasses(ParameterizedFixture.class);
+
+        assertThat(result.getRunCount(), is(8));
+        assertThat(result.wasSuccessful(), is(true));
+        assertThat(STARTED.get(), is(1));
+        assertThat(CONTEXTS.size(), is(1));
+        assertThat(allContextsClosed(), is(true));
+    }
+
+    @Test
+    public void rowsWithTheirOwnSingletonsGetTheirOwnContext() {
+        final Result result = JUnitCore.runClasses(ParameterizedWithSingletonsFixture.class);
+
+        assertThat(result.wasSuccessful(), is(true));
+        assertThat(STARTED.get(), is(4));
+        assertThat(CONTEXTS.size(), is(4));
+        assertThat(allContextsClosed(), is(true));
+    }
+
+    @Test
+    public void rowsDoNotShareAContextUnlessAskedTo() {
+        final Result result = JUnitCore.runClasses(ParameterizedWithoutReuseFixture.class);
+
+        assertThat(result.wasSuccessful(), is(true));
+        assertThat(STARTED.get(), is(4));
+        assertThat(CONTEXTS.size(), is(4));
+    }
+
+    @Test
+    public void repeatedTestsShareAContextUntilTheClassFinishes() throws Throwable {
+        final RepeatedInvocations invocations = new RepeatedInvocations();
+        final Description description
+                = Description.createTestDescription(SpringContextRepeatedInvocationTest.class, "repeated");
+        final Statement repeatedTest = new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                for (int i = 0; i < 3; i++) {
+                    final SpringContext springContext = SpringContext.builder()
+                            .config(CountingConfig.class)
+                            .reuseAcrossInvocations(invocations)
+                            .build();
+                    springContext.apply(new Statement() {
+                        @Override
+                        public void evaluate() {
+                            CONTEXTS.add(springContext.getApplicationContext());
+                        }
+                    }, description).evaluate();
+                }
+                assertThat(CONTEXTS.size(), is(1));
+                assertThat(allContextsClosed(), is(false));
+            }
+        };
+
+        invocations.apply(repeatedTest, Description.createSuiteDescription(SpringContextRepeatedInvocationTest.class))
+                .evaluate();
+
+        assertThat(STARTED.get(), is(1));
+        assertThat(allContextsClosed(), is(true));
+    }
+
+    @Test
+    public void contextIsClosedWhenTheSingletonsChange() throws Throwable {
+        final RepeatedInvocations invocations = new RepeatedInvocations();
+        final Statement changingSingletons = new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                for (int i = 0; i < 3; i++) {
+                    final SpringContext springContext = SpringContext.builder()
+                            .config(CountingConfig.class)
+                            .singleton("bar", new Object())
+                            .reuseAcrossInvocations(invocations)
+                            .build();
+                    springContext.apply(new Statement() {
+                        @Override
+                        public void evaluate() {
+                            assertThat(openContexts(), is(0));
+                            CONTEXTS.add(springContext.getApplicationContext());
+                        }
+                    }, Description.EMPTY).evaluate();
+                }
+            }
+        };
+
+        invocations.apply(changingSingletons,
+                Description.createSuiteDescription(SpringContextRepeatedInvocationTest.class)).evaluate();
+
+        assertThat(STARTED.get(), is(3));
+        assertThat(allContextsClosed(), is(true));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void invocationsMustBeAClassRule() throws Throwable {
+        SpringContext.builder()
+                .config(CountingConfig.class)
+                .reuseAcrossInvocations(new RepeatedInvocations())
+                .build()
+                .apply(mock(Statement.class), Description.EMPTY)
+                .evaluate();
+    }
+
+    private static boolean allContextsClosed() {
+        return openContexts() == 0;
+    }
+
+    private static int openContexts() {
+        int open = 0;
+        for (final ApplicationContext applicationContext : CONTEXTS) {
+            if (((ConfigurableApplicationContext) applicationContext).isActive()) {
+                open++;
+            }
+        }
+        return open;
+    }
+}
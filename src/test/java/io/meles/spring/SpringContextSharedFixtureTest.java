@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+public class SpringContextSharedFixtureTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    public static class Table {
+    }
+
+    public static class TableUser {
+
+        private final Table table;
+
+        public TableUser(final Table table) {
+            this.table = table;
+        }
+    }
+
+    @Configuration
+    public static class TableConfig {
+
+        @Bean
+        public TableUser tableUser(final Table table) {
+            return new TableUser(table);
+        }
+    }
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private final SharedFixture<Table> table = new SharedFixture<>(Table.class, new ObjectFactory<Table>() {
+        @Override
+        public Table getObject() {
+            loads.incrementAndGet();
+            return new Table();
+        }
+    });
+
+    @Test
+    public void fixtureIsOnlyLoadedWhenNeeded() throws Throwable {
+        SpringContext.builder()
+                .config(SimpleConfig.class)
+                .singleton("table", table)
+                .build()
+                .apply(mock(Statement.class), Description.EMPTY)
+                .evaluate();
+
+        assertThat(loads.get(), is(0));
+    }
+
+    @Test
+    public void fixtureIsReleasedWhenTheContextCloses() throws Throwable {
+        final SpringContext springContext = tableContext();
+
+        springContext.apply(new Statement() {
+            @Override
+            public void evaluate() {
+                assertThat(table.isLoaded(), is(true));
+            }
+        }, Description.EMPTY).evaluate();
+
+        assertThat(table.isLoaded(), is(false));
+        assertThat(loads.get(), is(1));
+    }
+
+    @Test
+    public void openContextsShareTheFixture() throws Throwable {
+        final SpringContext outer = tableContext();
+        final SpringContext inner = tableContext();
+
+        outer.apply(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                inner.apply(new Statement() {
+                    @Override
+                    public void evaluate() {
+                        assertThat(inner.getBean(TableUser.class).table,
+                                is(sameInstance(outer.getBean(TableUser.class).table)));
+                    }
+                }, Description.EMPTY).evaluate();
+                assertThat(table.isLoaded(), is(true));
+            }
+        }, Description.EMPTY).evaluate();
+
+        assertThat(loads.get(), is(1));
+        assertThat(table.isLoaded(), is(false));
+    }
+
+    @Test
+    public void mappedFileIsReadOnly() throws Throwable {
+        final File file = temporaryFolder.newFile("fixture.bin");
+        Files.write(file.toPath(), new byte[]{4, 2});
+        final SpringContext springContext = SpringContext.builder()
+                .config(SimpleConfig.class)
+                .singleton("fixture", SharedFixture.mappedFile(file))
+                .build();
+
+        springContext.apply(new Statement() {
+            @Override
+            public void evaluate() {
+                final ByteBuffer fixture = springContext.getBean(ByteBuffer.class);
+                assertThat(fixture.isReadOnly(), is(true));
+                assertThat(fixture.get(1), is((byte) 2));
+            }
+        }, Description.EMPTY).evaluate();
+    }
+
+    private SpringContext tableContext() {
+        return SpringContext.builder()
+                .config(TableConfig.class)
+                .singleton("table", table)
+                .build();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2014 Neil Green
+ *
+ * This file is part of Meles Spring Rule.
+ *
+ * Meles Spring Rule is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Meles Spring Rule is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Meles Spring Rule.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.meles.spring;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+public class SpringContextSingletonSwapTest {
+
+    @Configuration
+    public static class FieldInjectedConfig {
+
+        @Autowired
+        private FooRepository fooRepository;
+
+        @Bean
+        public BarService fieldInjectedBarService() {
+            return new BarService(fooRepository);
+        }
+    }
+
+    @After
+    public void closeCachedContexts() {
+        ContextCache.shared().clear();
+    }
+
+    @Test
+    public void contextIsReusedWithSwappedSingletons() throws Throwable {
+        final Foo firstFoo = new Foo();
+        final Foo secondFoo = new Foo();
+
+        final Observed first = evaluate(swappingContext(BarConfig.class, repositoryReturning(firstFoo)));
+        final Observed second = evaluate(swappingContext(BarConfig.class, repositoryReturning(secondFoo)));
+
+        assertThat(second.applicationContext, sameInstance(first.applicationContext));
+        assertThat(first.foundFoo, is(firstFoo));
+        assertThat(second.foundFoo, is(secondFoo));
+    }
+
+    @Test
+    public void beansNotDependingOnSwappedSingletonsAreKept() throws Throwable {
+        final Observed first = evaluate(swappingContext(BarConfig.class, repositoryReturning(new Foo())));
+        final Observed second = evaluate(swappingContext(BarConfig.class, repositoryReturning(new Foo())));
+
+        assertThat(second.simpleConfig, sameInstance(first.simpleConfig));
+        assertThat(second.barService, not(sameInstance(first.barService)));
+    }
+
+    @Test
+    public void beansDeclaredByConfigDependingOnSwappedSingletonsAreRecreated() throws Throwable {
+        final Foo firstFoo = new Foo();
+        final Foo secondFoo = new Foo();
+
+        final Observed first = evaluate(swappingContext(FieldInjectedConfig.class, repositoryReturning(firstFoo)));
+        final Observed second = evaluate(swappingContext(FieldInjectedConfig.class, repositoryReturning(secondFoo)));
+
+        assertThat(second.applicationContext, sameInstance(first.applicationContext));
+        assertThat(first.foundFoo, is(firstFoo));
+        assertThat(second.foundFoo, is(secondFoo));
+    }
+
+    @Test
+    public void contextsWithDifferentSingletonNamesAreNotShared() throws Throwable {
+        final Observed first = evaluate(swappingContext(BarConfig.class, repositoryReturning(new Foo())));
+        final Observed second = evaluate(SpringContext.builder()
+                .config(SimpleConfig.class, BarConfig.class)
+                .singleton("fooRepository", repositoryReturning(new Foo()))
+                .singleton("foo", new Foo())
+                .swapSingletons()
+                .build());
+
+        assertThat(second.applicationContext, not(sameInstance(first.applicationContext)));
+    }
+
+    @Test
+    public void cachedContextIsClosedWhenCacheIsCleared() throws Throwable {
+        final Observed observed = evaluate(swappingContext(BarConfig.class, repositoryReturning(new Foo())));
+        final ConfigurableApplicationContext applicationContext
+                = (ConfigurableApplicationContext) observed.applicationContext;
+
+        assertTrue(applicationContext.isActive());
+        ContextCache.shared().clear();
+        assertFalse(applicationContext.isActive());
+    }
+
+    @Test
+    public void leastRecentlyUsedContextIsClosedWhenCacheIsFull() throws Exception {
+        final ContextCache cache = new ContextCache(1);
+
+        final ContextLease first = lease(cache, SimpleConfig.class);
+        first.close();
+        lease(cache, ExtraConfig.class).close();
+
+        assertFalse(first.getApplicationContext().isActive());
+        cache.clear();
+    }
+
+    private static ContextLease lease(final ContextCache cache, final Class<?> config) throws Exception {
+        final ContextKey key = new ContextKey(Collections.<Class<?>>singletonList(config), Collections.<String>emptySet());
+        return cache.lease(key, new Callable<ConfigurableApplicationContext>() {
+            @Override
+            public ConfigurableApplicationContext call() {
+                return new AnnotationConfigApplicationContext(config);
+            }
+        }, new ContextLifecycle(key, Collections.<ContextLifecycleListener>emptyList()));
+    }
+
+    private static SpringContext swappingContext(final Class<?> config, final FooRepository fooRepository) {
+        return SpringContext.builder()
+                .config(SimpleConfig.class, config)
+                .singleton("fooRepository", fooRepository)
+                .swapSingletons()
+                .build();
+    }
+
+    private static FooRepository repositoryReturning(final Foo foo) {
+        final FooRepository fooRepository = mock(FooRepository.class);
+        when(fooRepository.load("123")).thenReturn(foo);
+        return fooRepository;
+    }
+
+    private static Observed evaluate(final SpringContext springContext) throws Throwable {
+        final Observed observed = new Observed();
+        springContext.apply(new Statement() {
+            @Override
+            public void evaluate() {
+                observed.applicationContext = springContext.getApplicationContext();
+                observed.simpleConfig = springContext.getBean(SimpleConfig.class);
+                observed.barService = springContext.getBean(BarService.class);
+                observed.foundFoo = observed.barService.findMeAFoo("123");
+            }
+        }, Description.EMPTY).evaluate();
+        return observed;
+    }
+
+    private static class Observed {
+        private ApplicationContext applicationContext;
+        private SimpleConfig simpleConfig;
+        private BarService barService;
+        private Foo foundFoo;
+    }
+
+}